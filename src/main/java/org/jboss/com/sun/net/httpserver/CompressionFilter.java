@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2006, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.com.sun.net.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A filter which compresses response bodies with the gzip or deflate
+ * content coding, as accepted by the client's <code>Accept-Encoding</code>.
+ * <p>
+ * Only responses with a compressible <code>Content-Type</code>, ie. text and
+ * the structured text types like JSON, XML and JavaScript, are compressed,
+ * and only if their length is not known or at least the minimum size.
+ * Responses which already have a <code>Content-Encoding</code>, partial
+ * responses and HEAD requests are left alone. A compressed response is sent
+ * with chunked framing, as its length is not known beforehand, and gets
+ * <code>Vary: Accept-Encoding</code>, as do those which could have been
+ * compressed for another client.
+ * <p>
+ * The {@link Deflater}s are pooled by the filter, so that the native memory
+ * of a deflater is not allocated for every response.
+ */
+public class CompressionFilter extends Filter {
+
+    /** the default minimum size of a compressed response, in bytes */
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    /* the most deflaters kept in each pool */
+    private static final int MAX_POOLED = 64;
+
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final int level;
+    private final int minSize;
+    /* guarded by themselves */
+    private final ArrayDeque<Deflater> gzipPool = new ArrayDeque<Deflater>();
+    private final ArrayDeque<Deflater> deflatePool = new ArrayDeque<Deflater>();
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * Creates a filter which compresses with the default level responses
+     * of at least {@link #DEFAULT_MIN_SIZE} bytes.
+     */
+    public CompressionFilter() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_MIN_SIZE);
+    }
+
+    /**
+     * Creates a filter.
+     *
+     * @param level   the compression level, 0-9, or
+     *                {@link Deflater#DEFAULT_COMPRESSION}
+     * @param minSize the minimum length of a response which is compressed,
+     *                if its length is given to {@link HttpExchange#sendResponseHeaders(int, long)}
+     * @throws IllegalArgumentException if level or minSize is out of range
+     */
+    public CompressionFilter(int level, int minSize) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid level: " + level);
+        }
+        if (minSize < 0) {
+            throw new IllegalArgumentException("negative minSize");
+        }
+        this.level = level;
+        this.minSize = minSize;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        String coding = null;
+        if (!exchange.getRequestMethod().equals("HEAD")) {
+            coding = negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        }
+        exchange.setStreams(null, new EncodingStream(exchange.getResponseBody(), coding));
+        chain.doFilter(exchange);
+    }
+
+    @Override
+    public String description() {
+        return "Compresses response bodies with gzip or deflate";
+    }
+
+    /**
+     * returns the number of responses which have been compressed
+     *
+     * @return the number of compressed responses
+     */
+    public long getCompressedResponses() {
+        return responses.get();
+    }
+
+    /**
+     * returns the number of bytes of the compressed responses,
+     * before compression
+     *
+     * @return the number of bytes written by handlers
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * returns the number of bytes of the compressed responses,
+     * after compression
+     *
+     * @return the number of bytes sent
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * returns the number of bytes saved by compressing responses
+     *
+     * @return getBytesIn() - getBytesOut()
+     */
+    public long getBytesSaved() {
+        return bytesIn.get() - bytesOut.get();
+    }
+
+    /**
+     * returns the coding to use for an Accept-Encoding header,
+     * or null for none
+     */
+    private static String negotiate(String accept) {
+        if (accept == null) {
+            return null;
+        }
+        double gzip = quality(accept, "gzip");
+        double deflate = quality(accept, "deflate");
+        if (gzip > 0 && gzip >= deflate) {
+            return "gzip";
+        }
+        return deflate > 0 ? "deflate" : null;
+    }
+
+    /**
+     * returns the quality value which an Accept-Encoding header
+     * gives a content coding, 0 if it is not acceptable
+     */
+    static double quality(String accept, String coding) {
+        double any = 0;
+        int i = 0;
+        int len = accept.length();
+        while (i < len) {
+            int j = accept.indexOf(',', i);
+            if (j == -1) {
+                j = len;
+            }
+            String c = accept.substring(i, j).trim();
+            double q = 1;
+            int semi = c.indexOf(';');
+            if (semi != -1) {
+                String param = c.substring(semi + 1).trim();
+                c = c.substring(0, semi).trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (c.equalsIgnoreCase(coding)
+                    || (coding.equals("gzip") && c.equalsIgnoreCase("x-gzip"))) {
+                return q;
+            }
+            if (c.equals("*")) {
+                any = q;
+            }
+            i = j + 1;
+        }
+        return any;
+    }
+
+    /**
+     * returns true for content types which are worth compressing
+     */
+    static boolean isCompressible(String contentType) {
+        int semi = contentType.indexOf(';');
+        String type = (semi == -1 ? contentType : contentType.substring(0, semi))
+                .trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.equals("application/javascript")
+                || type.equals("application/json")
+                || type.equals("application/xml")
+                || type.equals("application/wasm")
+                || type.equals("image/svg+xml")
+                || type.endsWith("+json")
+                || type.endsWith("+xml");
+    }
+
+    private Deflater take(boolean gzip) {
+        ArrayDeque<Deflater> pool = gzip ? gzipPool : deflatePool;
+        Deflater d;
+        synchronized (pool) {
+            d = pool.poll();
+        }
+        return d != null ? d : new Deflater(level, gzip);
+    }
+
+    private void release(Deflater d, boolean gzip) {
+        ArrayDeque<Deflater> pool = gzip ? gzipPool : deflatePool;
+        d.reset();
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED) {
+                pool.push(d);
+                return;
+            }
+        }
+        d.end();
+    }
+
+    /**
+     * the response body stream, which compresses the body if the
+     * response headers allow it
+     */
+    private class EncodingStream extends ResponseFilterStream {
+        private final String coding;
+        private boolean gzip;
+        private Deflater deflater;
+        private CRC32 crc;
+        private byte[] buf;
+        private boolean started;
+        private boolean closed;
+
+        EncodingStream(OutputStream out, String coding) {
+            super(out);
+            this.coding = coding;
+        }
+
+        @Override
+        public long beforeHeaders(int rCode, Headers headers, long responseLength) {
+            if (responseLength == -1 || rCode < 200 || rCode == 204 || rCode == 206 || rCode == 304
+                    || headers.containsKey("Content-Encoding")) {
+                return responseLength;
+            }
+            String type = headers.getFirst("Content-Type");
+            if (type == null || !isCompressible(type)) {
+                return responseLength;
+            }
+            addVary(headers);
+            if (coding == null || (responseLength > 0 && responseLength < minSize)) {
+                return responseLength;
+            }
+            headers.set("Content-Encoding", coding);
+            headers.remove("Content-Length");
+            String etag = headers.getFirst("ETag");
+            if (etag != null && etag.endsWith("\"")) {
+                /* the encoded body is a different representation */
+                headers.set("ETag", etag.substring(0, etag.length() - 1) + "-" + coding + "\"");
+            }
+            gzip = coding.equals("gzip");
+            deflater = take(gzip);
+            if (gzip) {
+                crc = new CRC32();
+            }
+            buf = new byte[8192];
+            return 0;
+        }
+
+        private void addVary(Headers headers) {
+            List<String> vary = headers.get("Vary");
+            if (vary != null) {
+                for (String v : vary) {
+                    if (v.toLowerCase(Locale.ROOT).contains("accept-encoding") || v.trim().equals("*")) {
+                        return;
+                    }
+                }
+            }
+            headers.add("Vary", "Accept-Encoding");
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            if (deflater == null) {
+                out.write(b, off, len);
+                return;
+            }
+            start();
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+        }
+
+        private void start() throws IOException {
+            if (!started) {
+                started = true;
+                if (gzip) {
+                    out.write(GZIP_HEADER);
+                }
+            }
+        }
+
+        /**
+         * writes the output of one call to deflate(), returns true if
+         * it filled the buffer
+         */
+        private boolean deflate(int mode) throws IOException {
+            int n = deflater.deflate(buf, 0, buf.length, mode);
+            if (n > 0) {
+                out.write(buf, 0, n);
+            }
+            return n == buf.length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (deflater != null && started) {
+                while (deflate(Deflater.SYNC_FLUSH)) ;
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Deflater d = deflater;
+            if (d != null) {
+                deflater = null;
+                try {
+                    start();
+                    d.finish();
+                    while (!d.finished()) {
+                        int n = d.deflate(buf, 0, buf.length);
+                        if (n > 0) {
+                            out.write(buf, 0, n);
+                        }
+                    }
+                    long written = d.getBytesWritten();
+                    if (gzip) {
+                        byte[] trailer = new byte[8];
+                        writeInt(trailer, 0, crc.getValue());
+                        writeInt(trailer, 4, d.getBytesRead());
+                        out.write(trailer);
+                        written += GZIP_HEADER.length + trailer.length;
+                    }
+                    responses.incrementAndGet();
+                    bytesIn.addAndGet(d.getBytesRead());
+                    bytesOut.addAndGet(written);
+                } finally {
+                    release(d, gzip);
+                }
+            }
+            out.close();
+        }
+
+        private void writeInt(byte[] b, int off, long v) {
+            b[off] = (byte) v;
+            b[off + 1] = (byte) (v >> 8);
+            b[off + 2] = (byte) (v >> 16);
+            b[off + 3] = (byte) (v >> 24);
+        }
+    }
+}
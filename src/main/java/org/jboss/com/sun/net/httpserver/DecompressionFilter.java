@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2006, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.com.sun.net.httpserver;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A filter which decompresses request bodies sent with the gzip or deflate
+ * <code>Content-Encoding</code>, so that handlers read the decompressed body
+ * from {@link HttpExchange#getRequestBody()}. The body is decompressed as it
+ * is read. The <code>Content-Encoding</code> and <code>Content-Length</code>
+ * request headers are removed, as they no longer describe the body.
+ * <p>
+ * Requests with any other content coding are answered with 415 (Unsupported
+ * Media Type). Reading more than the maximum size of a decompressed body
+ * throws an IOException, which protects handlers from small requests which
+ * decompress to huge bodies.
+ * <p>
+ * The {@link Inflater}s are pooled by the filter, so that the native memory
+ * of an inflater is not allocated for every request.
+ */
+public class DecompressionFilter extends Filter {
+
+    /** the default maximum size of a decompressed request body, in bytes */
+    public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /* the most inflaters kept in each pool */
+    private static final int MAX_POOLED = 64;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final long maxSize;
+    /* guarded by themselves */
+    private final ArrayDeque<Inflater> rawPool = new ArrayDeque<Inflater>();
+    private final ArrayDeque<Inflater> zlibPool = new ArrayDeque<Inflater>();
+
+    /**
+     * Creates a filter which allows decompressed bodies of up to
+     * {@link #DEFAULT_MAX_SIZE} bytes.
+     */
+    public DecompressionFilter() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a filter.
+     *
+     * @param maxSize the maximum size of a decompressed request body
+     * @throws IllegalArgumentException if maxSize is negative
+     */
+    public DecompressionFilter(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("negative maxSize");
+        }
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        Headers headers = exchange.getRequestHeaders();
+        String coding = headers.getFirst("Content-Encoding");
+        if (coding != null) {
+            coding = coding.trim();
+            boolean gzip = coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip");
+            if (!gzip && !coding.equalsIgnoreCase("deflate")) {
+                if (!coding.equalsIgnoreCase("identity")) {
+                    exchange.getResponseHeaders().set("Accept-Encoding", "gzip, deflate");
+                    exchange.sendResponseHeaders(415, -1);
+                    exchange.close();
+                    return;
+                }
+            } else {
+                headers.remove("Content-Encoding");
+                headers.remove("Content-Length");
+                exchange.setStreams(new InflatingStream(exchange.getRequestBody(), gzip), null);
+            }
+        }
+        chain.doFilter(exchange);
+    }
+
+    @Override
+    public String description() {
+        return "Decompresses gzip or deflate encoded request bodies";
+    }
+
+    private Inflater take(boolean nowrap) {
+        ArrayDeque<Inflater> pool = nowrap ? rawPool : zlibPool;
+        Inflater inf;
+        synchronized (pool) {
+            inf = pool.poll();
+        }
+        return inf != null ? inf : new Inflater(nowrap);
+    }
+
+    private void release(Inflater inf, boolean nowrap) {
+        ArrayDeque<Inflater> pool = nowrap ? rawPool : zlibPool;
+        inf.reset();
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED) {
+                pool.push(inf);
+                return;
+            }
+        }
+        inf.end();
+    }
+
+    /**
+     * the request body stream, which inflates the body as it is read.
+     * A gzip body may consist of several members.
+     */
+    private class InflatingStream extends FilterInputStream {
+        private final boolean gzip;
+        private final byte[] buf = new byte[8192];
+        /* the unread bytes of buf */
+        private int pos, lim;
+        private Inflater inflater;
+        private boolean nowrap;
+        private CRC32 crc;
+        private long size;
+        private boolean eof;
+        private boolean closed;
+        private final byte[] one = new byte[1];
+
+        InflatingStream(InputStream in, boolean gzip) {
+            super(in);
+            this.gzip = gzip;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (eof) {
+                return -1;
+            }
+            if (inflater == null && !start()) {
+                eof = true;
+                return -1;
+            }
+            try {
+                int n;
+                while ((n = inflater.inflate(b, off, len)) == 0) {
+                    if (inflater.finished()) {
+                        pos = lim - inflater.getRemaining();
+                        if (!member()) {
+                            eof = true;
+                            end();
+                            return -1;
+                        }
+                    } else if (inflater.needsDictionary()) {
+                        throw new ZipException("preset dictionary not supported");
+                    } else if (inflater.needsInput()) {
+                        if (pos == lim && !fill()) {
+                            throw new EOFException("unexpected end of compressed request body");
+                        }
+                        inflater.setInput(buf, pos, lim - pos);
+                        pos = lim;
+                    }
+                }
+                if (crc != null) {
+                    crc.update(b, off, n);
+                }
+                size += n;
+                if (size > maxSize) {
+                    throw new IOException("decompressed request body larger than " + maxSize + " bytes");
+                }
+                return n;
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+        }
+
+        /**
+         * reads the start of the body, returns false if it is empty
+         */
+        private boolean start() throws IOException {
+            if (gzip) {
+                if (!header()) {
+                    return false;
+                }
+                nowrap = true;
+                crc = new CRC32();
+            } else {
+                while (lim - pos < 2 && fill()) ;
+                if (pos == lim) {
+                    return false;
+                }
+                /* some clients send raw deflate data rather than zlib */
+                if (lim - pos < 2) {
+                    nowrap = true;
+                } else {
+                    int cmf = buf[pos] & 0xff;
+                    int flg = buf[pos + 1] & 0xff;
+                    nowrap = (cmf & 0x0f) != 8 || ((cmf << 8) | flg) % 31 != 0;
+                }
+            }
+            inflater = take(nowrap);
+            return true;
+        }
+
+        /**
+         * checks the trailer of a finished gzip member, and starts
+         * the next one. Returns false at the end of the body.
+         */
+        private boolean member() throws IOException {
+            if (!gzip) {
+                return false;
+            }
+            long value = readInt();
+            long isize = readInt();
+            if (value != crc.getValue() || isize != (inflater.getBytesWritten() & 0xffffffffL)) {
+                throw new ZipException("corrupt gzip trailer");
+            }
+            if (!header()) {
+                return false;
+            }
+            inflater.reset();
+            crc.reset();
+            inflater.setInput(buf, pos, lim - pos);
+            pos = lim;
+            return true;
+        }
+
+        /**
+         * reads a gzip member header, returns false at the end of the body
+         */
+        private boolean header() throws IOException {
+            if (pos == lim && !fill()) {
+                return false;
+            }
+            if (readByte() != 0x1f || readByte() != 0x8b || readByte() != 8) {
+                throw new ZipException("not in gzip format");
+            }
+            int flags = readByte();
+            skipBytes(6);
+            if ((flags & FEXTRA) != 0) {
+                skipBytes(readByte() | (readByte() << 8));
+            }
+            if ((flags & FNAME) != 0) {
+                while (readByte() != 0) ;
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readByte() != 0) ;
+            }
+            if ((flags & FHCRC) != 0) {
+                skipBytes(2);
+            }
+            return true;
+        }
+
+        private long readInt() throws IOException {
+            return (readByte() | (readByte() << 8) | (readByte() << 16) | ((long) readByte() << 24));
+        }
+
+        private int readByte() throws IOException {
+            if (pos == lim && !fill()) {
+                throw new EOFException("unexpected end of compressed request body");
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        private void skipBytes(int n) throws IOException {
+            while (n-- > 0) {
+                readByte();
+            }
+        }
+
+        /**
+         * reads more of the body into buf, keeping the unread bytes.
+         * Returns false at the end of the body.
+         */
+        private boolean fill() throws IOException {
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, lim - pos);
+                lim -= pos;
+                pos = 0;
+            }
+            int n = in.read(buf, lim, buf.length - lim);
+            if (n == -1) {
+                return false;
+            }
+            lim += n;
+            return true;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return eof ? 0 : 1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            byte[] b = new byte[(int) Math.min(n, 8192)];
+            while (skipped < n) {
+                int r = read(b, 0, (int) Math.min(n - skipped, b.length));
+                if (r == -1) {
+                    break;
+                }
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            end();
+            in.close();
+        }
+
+        private void end() {
+            if (inflater != null) {
+                release(inflater, nowrap);
+                inflater = null;
+            }
+        }
+    }
+}
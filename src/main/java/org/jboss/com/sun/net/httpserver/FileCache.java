@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2006, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.com.sun.net.httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the contents of small files, held in direct buffers
+ * outside the Java heap. A cached file can be sent with
+ * {@link HttpExchange#sendResponse(int, ByteBuffer)} without opening or
+ * reading it again.
+ * <p>
+ * The cache holds at most <code>maxBytes</code> bytes of file contents, and
+ * only files of at most <code>maxFileSize</code> bytes. The least recently
+ * used files are evicted first. The size and modification time of a cached
+ * file are checked against the file system at most once per check interval,
+ * and the file is read again when they have changed.
+ * <p>
+ * A cache can be shared by any number of handlers and threads.
+ */
+public class FileCache {
+
+    /** the default interval at which cached files are checked, in ms */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    private static final class Entry {
+        final ByteBuffer contents;
+        final long lastModified;
+        final long size;
+        /* when the attributes were last read, ms */
+        volatile long checked;
+
+        Entry(ByteBuffer contents, long size, long lastModified, long now) {
+            this.contents = contents;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checked = now;
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxFileSize;
+    private final long checkInterval;
+    /* in access order, guarded by this */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Creates a cache which checks cached files every
+     * {@link #DEFAULT_CHECK_INTERVAL} ms.
+     *
+     * @param maxBytes    the most bytes of file contents held by the cache
+     * @param maxFileSize the size of the largest file which is cached
+     * @throws IllegalArgumentException if maxBytes or maxFileSize is negative
+     */
+    public FileCache(long maxBytes, int maxFileSize) {
+        this(maxBytes, maxFileSize, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes      the most bytes of file contents held by the cache
+     * @param maxFileSize   the size of the largest file which is cached
+     * @param checkInterval the time in ms for which a cached file is used
+     *                      without checking it against the file system.
+     *                      0 checks it on every lookup.
+     * @throws IllegalArgumentException if an argument is negative
+     */
+    public FileCache(long maxBytes, int maxFileSize, long checkInterval) {
+        if (maxBytes < 0 || maxFileSize < 0 || checkInterval < 0) {
+            throw new IllegalArgumentException("negative argument");
+        }
+        this.maxBytes = maxBytes;
+        this.maxFileSize = Math.min(maxFileSize, maxBytes);
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * returns the size of the largest file which is cached
+     *
+     * @return the size in bytes
+     */
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * returns the number of bytes of file contents held by the cache
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the contents of a file, from the cache if it holds the file
+     * and the file has not changed, or else read into the cache.
+     * The returned buffer is read-only, and is not shared with other callers.
+     *
+     * @param path the file
+     * @return the contents of the file, or <code>null</code> if it is not a
+     * regular file, is larger than the largest file which is cached, or
+     * changed while it was read
+     * @throws IOException if the file could not be read
+     */
+    public ByteBuffer get(Path path) throws IOException {
+        long now = System.currentTimeMillis();
+        Entry e;
+        synchronized (this) {
+            e = entries.get(path);
+        }
+        if (e != null && now - e.checked < checkInterval) {
+            return e.contents.duplicate();
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException x) {
+            invalidate(path);
+            return null;
+        }
+        if (!attrs.isRegularFile() || attrs.size() > maxFileSize) {
+            invalidate(path);
+            return null;
+        }
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        if (e != null && e.size == attrs.size() && e.lastModified == lastModified) {
+            e.checked = now;
+            return e.contents.duplicate();
+        }
+        ByteBuffer contents = read(path, (int) attrs.size());
+        if (contents == null) {
+            invalidate(path);
+            return null;
+        }
+        e = new Entry(contents, contents.capacity(), lastModified, now);
+        put(path, e);
+        return contents.duplicate();
+    }
+
+    /**
+     * Removes a file from the cache.
+     *
+     * @param path the file
+     */
+    public synchronized void invalidate(Path path) {
+        Entry e = entries.remove(path);
+        if (e != null) {
+            totalBytes -= e.size;
+        }
+    }
+
+    /**
+     * Removes all files from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    private synchronized void put(Path path, Entry e) {
+        Entry old = entries.put(path, e);
+        if (old != null) {
+            totalBytes -= old.size;
+        }
+        totalBytes += e.size;
+        Iterator<Map.Entry<Path, Entry>> i = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && i.hasNext()) {
+            Map.Entry<Path, Entry> eldest = i.next();
+            if (eldest.getValue() != e) {
+                totalBytes -= eldest.getValue().size;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * reads size bytes of the file into a read-only direct buffer,
+     * or returns null if the file does not have that size
+     */
+    private static ByteBuffer read(Path path, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(size);
+        FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            while (buf.hasRemaining()) {
+                if (fc.read(buf) == -1) {
+                    return null;
+                }
+            }
+            if (fc.size() != size) {
+                return null;
+            }
+        } finally {
+            fc.close();
+        }
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2006, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.com.sun.net.httpserver;
+
+/**
+ * Counters of the TLS handshakes of a {@link HttpsServer}, as returned by
+ * {@link HttpsServer#getHandshakeStatistics()}.
+ * <p>
+ * The expensive steps of a handshake, the delegated tasks of the
+ * {@link javax.net.ssl.SSLEngine}, are run by a bounded pool of handshake
+ * threads, so that a burst of new connections does not take the threads
+ * which process requests. A handshake is refused, and its connection
+ * closed, when the queue of that pool is full.
+ * <p>
+ * The values are read independently of each other, so a set of them
+ * is not necessarily consistent while handshakes are in progress.
+ * All times are in milliseconds.
+ */
+public abstract class HandshakeStatistics {
+
+    protected HandshakeStatistics() {
+    }
+
+    /**
+     * returns the number of handshakes which have started, and have
+     * neither completed, failed nor been rejected yet
+     *
+     * @return the number of handshakes in progress
+     */
+    public abstract long getActiveHandshakes();
+
+    /**
+     * returns the number of handshakes which have completed
+     *
+     * @return the number of completed handshakes
+     */
+    public abstract long getCompletedHandshakes();
+
+    /**
+     * returns the number of completed handshakes which resumed a session
+     * from the session cache or from a session ticket
+     *
+     * @return the number of abbreviated handshakes
+     */
+    public abstract long getResumedHandshakes();
+
+    /**
+     * returns the number of completed handshakes which created a new
+     * session, ie. getCompletedHandshakes() - getResumedHandshakes()
+     *
+     * @return the number of full handshakes
+     */
+    public abstract long getFullHandshakes();
+
+    /**
+     * returns the number of handshakes which have failed, or whose
+     * connection was closed before they completed. The rejected
+     * handshakes are not included
+     *
+     * @return the number of failed handshakes
+     */
+    public abstract long getFailedHandshakes();
+
+    /**
+     * returns the number of handshakes which were refused because
+     * the queue of the handshake threads was full
+     *
+     * @return the number of rejected handshakes
+     */
+    public abstract long getRejectedHandshakes();
+
+    /**
+     * returns the number of handshake steps waiting for a handshake thread
+     *
+     * @return the current depth of the queue
+     */
+    public abstract int getQueuedTasks();
+
+    /**
+     * returns the number of handshake steps being run by handshake threads
+     *
+     * @return the number of busy handshake threads
+     */
+    public abstract int getRunningTasks();
+
+    /**
+     * returns the time taken by the completed handshakes, from the
+     * first bytes received from the client to the end of the handshake
+     *
+     * @return the total duration of the completed handshakes
+     */
+    public abstract long getTotalHandshakeTime();
+
+    /**
+     * returns the time handshake steps have spent in the queue before
+     * a handshake thread took them
+     *
+     * @return the total waiting time of the handshake steps
+     */
+    public abstract long getTotalQueueTime();
+
+    /**
+     * returns the time the handshake threads have spent on handshake steps
+     *
+     * @return the total running time of the handshake steps
+     */
+    public abstract long getTotalTaskTime();
+}
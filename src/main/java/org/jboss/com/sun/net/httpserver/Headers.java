@@ -25,7 +25,17 @@
 
 package org.jboss.com.sun.net.httpserver;
 
-import java.util.*;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * HTTP request and response headers are represented by this class which implements
@@ -61,10 +71,38 @@ import java.util.*;
  */
 public class Headers implements Map<String, List<String>> {
 
-    HashMap<String, List<String>> map;
+    /* The headers are kept in two parallel arrays of normalized names and
+     * value lists, in the order they were added. There are few of them, so
+     * looking a name up is a scan comparing names case-insensitively, which
+     * needs no normalized copy of the key. Names are only normalized when
+     * added, using the table of common names below where possible.
+     */
+    private static final String[] KNOWN_NAMES = {
+            "Accept", "Accept-charset", "Accept-encoding", "Accept-language",
+            "Accept-ranges", "Age", "Allow", "Authorization", "Cache-control",
+            "Connection", "Content-disposition", "Content-encoding",
+            "Content-language", "Content-length", "Content-location",
+            "Content-range", "Content-type", "Cookie", "Date", "Etag", "Expect",
+            "Expires", "Host", "If-match", "If-modified-since", "If-none-match",
+            "If-range", "If-unmodified-since", "Keep-alive", "Last-modified",
+            "Location", "Origin", "Pragma", "Range", "Referer", "Retry-after",
+            "Server", "Set-cookie", "Te", "Trailer", "Transfer-encoding",
+            "Upgrade", "User-agent", "Vary", "Via", "Www-authenticate",
+            "X-forwarded-for"
+    };
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private String[] names = NO_NAMES;
+    private List<String>[] values;
+    private int size;
+    /* structural changes, for the iterators of the views */
+    private int modCount;
+    private Set<Map.Entry<String, List<String>>> entrySet;
+    private Set<String> keySet;
+    private Collection<List<String>> valueCollection;
 
     public Headers() {
-        map = new HashMap<String, List<String>>(32);
     }
 
     /* Normalize the key by converting to following form.
@@ -79,6 +117,20 @@ public class Headers implements Map<String, List<String>> {
         if (len == 0) {
             return key;
         }
+        char c = key.charAt(0);
+        boolean normal = c < 'a' || c > 'z';
+        for (int i = 1; normal && i < len; i++) {
+            c = key.charAt(i);
+            normal = c < 'A' || c > 'Z';
+        }
+        if (normal) {
+            return key;
+        }
+        for (String name : KNOWN_NAMES) {
+            if (equalsIgnoreCase(name, key)) {
+                return name;
+            }
+        }
         char[] b = key.toCharArray();
         if (b[0] >= 'a' && b[0] <= 'z') {
             b[0] = (char) (b[0] - ('a' - 'A'));
@@ -91,14 +143,86 @@ public class Headers implements Map<String, List<String>> {
         return new String(b);
     }
 
+    /* ASCII only, as normalize() */
+    private static boolean equalsIgnoreCase(String a, String b) {
+        int len = a.length();
+        if (len != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = a.charAt(i);
+            char d = b.charAt(i);
+            if (c != d) {
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (d >= 'A' && d <= 'Z') {
+                    d += 'a' - 'A';
+                }
+                if (c != d) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) {
+            for (int i = 0; i < size; i++) {
+                if (names[i] == null) {
+                    return i;
+                }
+            }
+        } else if (key instanceof String) {
+            String k = (String) key;
+            for (int i = 0; i < size; i++) {
+                String name = names[i];
+                if (name != null && (name == k || equalsIgnoreCase(name, k))) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int append(String key, List<String> value) {
+        if (size == names.length) {
+            int n = size == 0 ? 8 : size * 2;
+            names = Arrays.copyOf(names, n);
+            values = values == null ? (List<String>[]) new List<?>[n] : Arrays.copyOf(values, n);
+        }
+        names[size] = normalize(key);
+        values[size] = value;
+        modCount++;
+        return size++;
+    }
+
+    private List<String> removeAt(int i) {
+        List<String> old = values[i];
+        int n = size - i - 1;
+        System.arraycopy(names, i + 1, names, i, n);
+        System.arraycopy(values, i + 1, values, i, n);
+        size--;
+        names[size] = null;
+        values[size] = null;
+        modCount++;
+        return old;
+    }
+
+    private static List<String> newList(int capacity) {
+        return new ArrayList<String>(capacity);
+    }
+
     @Override
     public int size() {
-        return map.size();
+        return size;
     }
 
     @Override
     public boolean isEmpty() {
-        return map.isEmpty();
+        return size == 0;
     }
 
     @Override
@@ -109,17 +233,23 @@ public class Headers implements Map<String, List<String>> {
         if (!(key instanceof String)) {
             return false;
         }
-        return map.containsKey(normalize((String) key));
+        return indexOf(key) != -1;
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return map.containsValue(value);
+        for (int i = 0; i < size; i++) {
+            if (value == null ? values[i] == null : value.equals(values[i])) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public List<String> get(Object key) {
-        return map.get(normalize((String) key));
+        int i = indexOf((String) key);
+        return i == -1 ? null : values[i];
     }
 
     /**
@@ -130,16 +260,23 @@ public class Headers implements Map<String, List<String>> {
      * @return the first string value associated with the key
      */
     public String getFirst(String key) {
-        List<String> l = map.get(normalize(key));
-        if (l == null) {
+        int i = indexOf(key);
+        if (i == -1 || values[i] == null) {
             return null;
         }
-        return l.get(0);
+        return values[i].get(0);
     }
 
     @Override
     public List<String> put(String key, List<String> value) {
-        return map.put(normalize(key), value);
+        int i = indexOf(key);
+        if (i == -1) {
+            append(key, value);
+            return null;
+        }
+        List<String> old = values[i];
+        values[i] = value;
+        return old;
     }
 
     /**
@@ -151,13 +288,13 @@ public class Headers implements Map<String, List<String>> {
      * @param value the header value to add to the header
      */
     public void add(String key, String value) {
-        String k = normalize(key);
-        List<String> l = map.get(k);
-        if (l == null) {
-            l = new LinkedList<>();
-            map.put(k, l);
+        int i = indexOf(key);
+        if (i == -1) {
+            i = append(key, newList(2));
+        } else if (values[i] == null) {
+            values[i] = newList(2);
         }
-        l.add(value);
+        values[i].add(value);
     }
 
     /**
@@ -169,7 +306,7 @@ public class Headers implements Map<String, List<String>> {
      * @param value the header value to set.
      */
     public void set(String key, String value) {
-        LinkedList<String> l = new LinkedList<String>();
+        List<String> l = newList(1);
         l.add(value);
         put(key, l);
     }
@@ -177,41 +314,254 @@ public class Headers implements Map<String, List<String>> {
 
     @Override
     public List<String> remove(Object key) {
-        return map.remove(normalize((String) key));
+        int i = indexOf((String) key);
+        return i == -1 ? null : removeAt(i);
     }
 
     @Override
     public void putAll(Map<? extends String, ? extends List<String>> t) {
-        map.putAll(t);
+        for (Map.Entry<? extends String, ? extends List<String>> e : t.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
     }
 
     @Override
     public void clear() {
-        map.clear();
+        if (size > 0) {
+            Arrays.fill(names, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+            modCount++;
+        }
     }
 
     @Override
     public Set<String> keySet() {
-        return map.keySet();
+        Set<String> s = keySet;
+        if (s == null) {
+            s = keySet = new AbstractSet<String>() {
+                @Override
+                public Iterator<String> iterator() {
+                    return new HeaderIterator<String>() {
+                        @Override
+                        String get(int i) {
+                            return names[i];
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return indexOf(o) != -1;
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    int i = indexOf(o);
+                    if (i == -1) {
+                        return false;
+                    }
+                    removeAt(i);
+                    return true;
+                }
+
+                @Override
+                public void clear() {
+                    Headers.this.clear();
+                }
+            };
+        }
+        return s;
     }
 
     @Override
     public Collection<List<String>> values() {
-        return map.values();
+        Collection<List<String>> c = valueCollection;
+        if (c == null) {
+            c = valueCollection = new AbstractCollection<List<String>>() {
+                @Override
+                public Iterator<List<String>> iterator() {
+                    return new HeaderIterator<List<String>>() {
+                        @Override
+                        List<String> get(int i) {
+                            return values[i];
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public void clear() {
+                    Headers.this.clear();
+                }
+            };
+        }
+        return c;
     }
 
     @Override
     public Set<Map.Entry<String, List<String>>> entrySet() {
-        return map.entrySet();
+        Set<Map.Entry<String, List<String>>> s = entrySet;
+        if (s == null) {
+            s = entrySet = new AbstractSet<Map.Entry<String, List<String>>>() {
+                @Override
+                public Iterator<Map.Entry<String, List<String>>> iterator() {
+                    return new HeaderIterator<Map.Entry<String, List<String>>>() {
+                        @Override
+                        Map.Entry<String, List<String>> get(int i) {
+                            return new HeaderEntry(names[i], values[i]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public void clear() {
+                    Headers.this.clear();
+                }
+            };
+        }
+        return s;
+    }
+
+    /**
+     * iterates over the headers in the order they were added
+     */
+    private abstract class HeaderIterator<E> implements Iterator<E> {
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        abstract E get(int i);
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return get(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == -1) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * an entry of the entry set, which writes its value through
+     */
+    private class HeaderEntry implements Map.Entry<String, List<String>> {
+        private final String key;
+        private List<String> value;
+
+        HeaderEntry(String key, List<String> value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public List<String> getValue() {
+            return value;
+        }
+
+        @Override
+        public List<String> setValue(List<String> value) {
+            List<String> old = this.value;
+            this.value = value;
+            put(key, value);
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return (key == null ? e.getKey() == null : key.equals(e.getKey()))
+                    && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
     }
 
     @Override
     public boolean equals(Object o) {
-        return map.equals(o);
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Map)) {
+            return false;
+        }
+        Map<?, ?> m = (Map<?, ?>) o;
+        if (m.size() != size()) {
+            return false;
+        }
+        for (Map.Entry<String, List<String>> e : entrySet()) {
+            String key = e.getKey();
+            List<String> value = e.getValue();
+            if (value == null) {
+                if (m.get(key) != null || !m.containsKey(key)) {
+                    return false;
+                }
+            } else if (!value.equals(m.get(key))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return map.hashCode();
+        int h = 0;
+        for (Map.Entry<String, List<String>> e : entrySet()) {
+            h += e.hashCode();
+        }
+        return h;
     }
 }
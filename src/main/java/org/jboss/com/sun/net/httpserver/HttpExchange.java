@@ -30,6 +30,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * This class encapsulates a HTTP request received and a
@@ -107,6 +111,17 @@ public abstract class HttpExchange {
      */
     public abstract URI getRequestURI();
 
+    /**
+     * Get the decoded path of the request URI, as
+     * <code>getRequestURI().getPath()</code>. The server returns it
+     * without creating the URI, unless the path contains escaped octets.
+     *
+     * @return the path of the request URI
+     */
+    public String getRequestPath() {
+        return getRequestURI().getPath();
+    }
+
     /**
      * Get the request method
      *
@@ -193,6 +208,103 @@ public abstract class HttpExchange {
      */
     public abstract void sendResponseHeaders(int rCode, long responseLength) throws IOException;
 
+    /**
+     * Sends a response whose body is the given region of a file, and
+     * terminates the response body. The Content-length is set to
+     * <code>count</code>. The current set of response headers is used,
+     * as in {@link #sendResponseHeaders(int, long)}, which must not have
+     * been called yet.
+     * <p>
+     * Over plain HTTP the server transfers the bytes from the file to the
+     * connection without copying them through the Java heap, where the
+     * platform allows it. Otherwise, or if the response body stream has
+     * been replaced by a filter, the bytes are copied to the response body.
+     * The file channel is not closed, and its position is not changed.
+     *
+     * @param rCode    the response code to send
+     * @param channel  the file to send
+     * @param position the position in the file of the first byte to send
+     * @param count    the number of bytes to send
+     * @throws IOException if the file is shorter than <code>position + count</code>,
+     *                     or the response could not be sent
+     * @throws IllegalArgumentException if position or count is negative
+     */
+    public void sendFile(int rCode, FileChannel channel, long position, long count) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("negative position or count");
+        }
+        sendResponseHeaders(rCode, count == 0 ? -1 : count);
+        OutputStream os = getResponseBody();
+        if (count > 0) {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, 16 * 1024));
+            while (count > 0) {
+                buf.clear();
+                if (buf.remaining() > count) {
+                    buf.limit((int) count);
+                }
+                int n = channel.read(buf, position);
+                if (n == -1) {
+                    throw new IOException("unexpected end of file");
+                }
+                os.write(buf.array(), 0, n);
+                position += n;
+                count -= n;
+            }
+        }
+        os.close();
+    }
+
+    /**
+     * Sends a response whose body is the remaining bytes of the given
+     * buffer, and terminates the response body. The Content-length is set
+     * to <code>body.remaining()</code>. The current set of response headers
+     * is used, as in {@link #sendResponseHeaders(int, long)}, which must not
+     * have been called yet.
+     * <p>
+     * Over plain HTTP the server writes the bytes to the connection from
+     * the buffer itself, together with the response headers, so a direct or
+     * mapped buffer, eg. from a {@link FileCache}, is not copied through the
+     * Java heap. The position and limit of the buffer are not changed, so
+     * the same buffer can be sent by several exchanges at once.
+     *
+     * @param rCode the response code to send
+     * @param body  the bytes to send
+     * @throws IOException if the response could not be sent
+     */
+    public void sendResponse(int rCode, ByteBuffer body) throws IOException {
+        ByteBuffer buf = body.duplicate();
+        sendResponseHeaders(rCode, buf.hasRemaining() ? buf.remaining() : -1);
+        OutputStream os = getResponseBody();
+        if (buf.hasArray()) {
+            os.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        } else {
+            byte[] b = new byte[Math.min(buf.remaining(), 16 * 1024)];
+            while (buf.hasRemaining()) {
+                int n = Math.min(b.length, buf.remaining());
+                buf.get(b, 0, n);
+                os.write(b, 0, n);
+            }
+        }
+        os.close();
+    }
+
+    /**
+     * Sends a response whose body is the whole given file, as
+     * {@link #sendFile(int, FileChannel, long, long)}.
+     *
+     * @param rCode the response code to send
+     * @param path  the file to send
+     * @throws IOException if the file cannot be read, or the response could not be sent
+     */
+    public void sendFile(int rCode, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            sendFile(rCode, channel, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
     /**
      * Returns the address of the remote entity invoking this request
      *
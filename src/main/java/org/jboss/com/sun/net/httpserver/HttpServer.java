@@ -28,10 +28,17 @@ package org.jboss.com.sun.net.httpserver;
 import org.jboss.com.sun.net.httpserver.spi.HttpServerProvider;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class implements a simple HTTP server. A HttpServer is bound to an IP address
@@ -47,7 +54,10 @@ import java.util.concurrent.Executor;
  * Any request for which no handler can be found is rejected with a 404 response.
  * Management of threads can be done external to this object by providing a
  * {@link java.util.concurrent.Executor} object. If none is provided a default
- * implementation is used.
+ * implementation is used, which runs each exchange in its own virtual thread
+ * where the runtime supports them, and in a pool of platform threads otherwise.
+ * {@link #newVirtualThreadExecutor(int)} and {@link #newThreadPoolExecutor(int)}
+ * create the same executors for use with {@link #setExecutor(Executor)}.
  * <p>
  * <a name="mapping_description"></a>
  * <b>Mapping request URIs to HttpContext paths</b><p>
@@ -178,8 +188,11 @@ public abstract class HttpServer {
      * All HTTP requests are handled in tasks given to the executor.
      * If this method is not called (before start()) or if it is
      * called with a <code>null</code> Executor, then
-     * a default implementation is used, which uses the thread
-     * which was created by the {@link #start()} method.
+     * a default implementation is used, as selected by the
+     * <code>sun.net.httpserver.executor</code> property: <code>virtual</code>
+     * (the default) for a virtual thread per exchange, <code>pool</code> for a
+     * pool of platform threads, or <code>inline</code> to run exchanges on the
+     * threads created by the {@link #start()} method.
      *
      * @param executor the Executor to set, or <code>null</code> for  default
      *                 implementation
@@ -197,6 +210,95 @@ public abstract class HttpServer {
      */
     public abstract Executor getExecutor();
 
+    /**
+     * creates an executor which runs each task in a new virtual thread.
+     * If the runtime does not support virtual threads, a pool of
+     * platform threads is returned instead, as if by
+     * {@link #newThreadPoolExecutor(int)}.
+     *
+     * @param fallbackThreads the maximum number of platform threads used
+     *                        when virtual threads are not available
+     * @return a new executor, which should be shut down once the server
+     *         which uses it has been stopped
+     */
+    public static ExecutorService newVirtualThreadExecutor(int fallbackThreads) {
+        ExecutorService e = virtualThreadExecutor();
+        return e != null ? e : newThreadPoolExecutor(fallbackThreads);
+    }
+
+    /**
+     * creates an executor which runs tasks in a pool of at most
+     * <code>nThreads</code> platform threads. Idle threads are
+     * discarded after one minute.
+     *
+     * @param nThreads the maximum number of threads
+     * @return a new executor, which should be shut down once the server
+     *         which uses it has been stopped
+     * @throws IllegalArgumentException if nThreads is not positive
+     */
+    public static ExecutorService newThreadPoolExecutor(int nThreads) {
+        ThreadPoolExecutor e = new ThreadPoolExecutor(
+                nThreads, nThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "HTTP-Worker-" + count.getAndIncrement());
+                    }
+                });
+        e.allowCoreThreadTimeOut(true);
+        return e;
+    }
+
+    /**
+     * returns <code>true</code> if {@link #newVirtualThreadExecutor(int)}
+     * creates virtual threads on this runtime.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /* Thread.ofVirtual() and friends are looked up reflectively so that
+     * the server still compiles and runs on releases without them. Where
+     * they are a preview API, they only work with --enable-preview, so a
+     * factory is created once to find out */
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, executor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            executor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            factory.invoke(name.invoke(ofVirtual.invoke(null), "HTTP-Worker-", 0L));
+        } catch (ReflectiveOperationException e) {
+            executor = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = executor;
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        if (NEW_THREAD_PER_TASK_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), "HTTP-Worker-", 0L);
+            ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     /**
      * stops this server by closing the listening socket and disallowing
      * any new exchanges from being processed. The method will then block
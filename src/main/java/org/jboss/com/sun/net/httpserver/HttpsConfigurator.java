@@ -27,6 +27,7 @@ package org.jboss.com.sun.net.httpserver;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
 
 
 /**
@@ -59,12 +60,25 @@ import javax.net.ssl.SSLParameters;
  *     }
  * });
  * </blockquote></pre>
+ * <p>
+ * The resumption of TLS sessions, which saves clients that come back
+ * most of the cost of a handshake, is tuned with
+ * {@link #setSessionCacheSize(int)} and {@link #setSessionTimeout(int)}.
+ * These are applied to the server {@link SSLSessionContext} of the
+ * SSLContext when the server starts, so they affect every user of that
+ * SSLContext. Whether TLS 1.3 sessions are resumed from stateless session
+ * tickets or from the server's cache is decided by the JSSE, see the
+ * <code>jdk.tls.server.enableSessionTicketExtension</code> system property,
+ * which must be set before the JSSE is first used.
+ * {@link HandshakeStatistics} counts the full and the resumed handshakes.
  *
  * @since 1.6
  */
 public class HttpsConfigurator {
 
     private SSLContext context;
+    private int sessionCacheSize = -1;
+    private int sessionTimeout = -1;
 
     /**
      * Creates an Https configuration, with the given SSLContext.
@@ -88,6 +102,56 @@ public class HttpsConfigurator {
         return context;
     }
 
+    /**
+     * Sets the number of TLS sessions the server keeps for resumption.
+     * Sessions beyond this are dropped, least recently used first.
+     *
+     * @param size the size of the session cache, 0 for no limit
+     * @throws IllegalArgumentException if size is negative
+     * @see SSLSessionContext#setSessionCacheSize(int)
+     */
+    public void setSessionCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("negative session cache size");
+        }
+        sessionCacheSize = size;
+    }
+
+    /**
+     * Returns the number of TLS sessions the server keeps for resumption.
+     *
+     * @return the size set with {@link #setSessionCacheSize(int)}, or -1
+     *         if the default of the SSLContext is used
+     */
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * Sets how long a TLS session may be resumed after it was created.
+     * This is also the lifetime of the session tickets.
+     *
+     * @param seconds the session timeout, 0 for no limit
+     * @throws IllegalArgumentException if seconds is negative
+     * @see SSLSessionContext#setSessionTimeout(int)
+     */
+    public void setSessionTimeout(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("negative session timeout");
+        }
+        sessionTimeout = seconds;
+    }
+
+    /**
+     * Returns how long a TLS session may be resumed after it was created.
+     *
+     * @return the timeout in seconds set with {@link #setSessionTimeout(int)},
+     *         or -1 if the default of the SSLContext is used
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
     /**
      * Called by the HttpsServer to configure the parameters
      * for a https connection currently being established.
@@ -123,4 +123,15 @@ public abstract class HttpsServer extends HttpServer {
      * @return the HttpsConfigurator for this server, or <code>null</code> if not set.
      */
     public abstract HttpsConfigurator getHttpsConfigurator();
+
+    /**
+     * Returns the counters of the TLS handshakes of this server.
+     * The default implementation keeps none.
+     *
+     * @return the handshake counters, or <code>null</code> if this
+     *         implementation does not keep any
+     */
+    public HandshakeStatistics getHandshakeStatistics() {
+        return null;
+    }
 }
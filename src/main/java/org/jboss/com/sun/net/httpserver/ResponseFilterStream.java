@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.com.sun.net.httpserver;
+
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+
+/**
+ * A filtered response body stream, which is told about the response
+ * before its headers are sent. A stream which changes the length of the
+ * response body, eg. by encoding it, can change the response headers and
+ * the framing of the body to match.
+ * <p>
+ * When such a stream is set with {@link HttpExchange#setStreams(java.io.InputStream, OutputStream)},
+ * {@link #beforeHeaders(int, Headers, long)} is called when
+ * {@link HttpExchange#sendResponseHeaders(int, long)} is. If several are
+ * set, the one set last, which sees the bytes written by the handler first,
+ * is called first, and passes its result on to the others.
+ */
+public abstract class ResponseFilterStream extends FilterOutputStream {
+
+    /**
+     * Creates a stream which writes to the given stream.
+     *
+     * @param out the response body stream to wrap
+     */
+    protected ResponseFilterStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Called before the response headers are sent. The stream can change
+     * the response headers, and returns the length of the body it will
+     * write, with the meaning of the <code>responseLength</code> parameter
+     * of {@link HttpExchange#sendResponseHeaders(int, long)}.
+     *
+     * @param rCode           the response code
+     * @param responseHeaders the response headers, which can be changed
+     * @param responseLength  the length of the response body written to
+     *                        this stream: &gt; 0 for that many bytes, 0 for
+     *                        an arbitrary number of bytes, -1 for none
+     * @return the length of the response body written by this stream
+     */
+    public abstract long beforeHeaders(int rCode, Headers responseHeaders, long responseLength);
+}
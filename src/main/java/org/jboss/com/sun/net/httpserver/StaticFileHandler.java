@@ -0,0 +1,590 @@
+/*
+ * Copyright (c) 2006, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.com.sun.net.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.FileNameMap;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A handler which serves the files below a root directory. The path of
+ * a request, relative to the path of its context, names the file below
+ * the root; a request for a directory is answered with its index.html.
+ * <p>
+ * The size, modification time, entity tag and content type of the files
+ * are cached, and checked against the file system again at most once per
+ * check interval. The handler answers
+ * <ul>
+ * <li><code>GET</code> and <code>HEAD</code> requests, and any other method
+ * with 405 (Method Not Allowed),</li>
+ * <li>conditional requests with <code>If-None-Match</code> or
+ * <code>If-Modified-Since</code> with 304 (Not Modified), from the cache
+ * without opening the file,</li>
+ * <li>requests for a single byte range with 206 (Partial Content), also
+ * subject to <code>If-Range</code>.</li>
+ * </ul>
+ * A file <code>name</code> with an up to date sidecar file <code>name.gz</code>
+ * is sent as the sidecar, with <code>Content-Encoding: gzip</code>, to clients
+ * which accept that encoding. The sidecars can be written with
+ * {@link #precompress(long)}.
+ * File bodies are sent with {@link HttpExchange#sendFile(int, FileChannel, long, long)},
+ * so they are not copied through the Java heap over plain HTTP. Small,
+ * frequently requested files can be served from a {@link FileCache}
+ * instead, which saves opening them for every request.
+ */
+public class StaticFileHandler implements HttpHandler {
+
+    /** the default interval at which cached file attributes are checked, in ms */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    /* the cache is emptied when it grows beyond this */
+    private static final int MAX_CACHED_FILES = 4096;
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<String, String>();
+
+    static {
+        String[] types = {
+                "html", "text/html", "htm", "text/html", "css", "text/css",
+                "js", "application/javascript", "mjs", "application/javascript",
+                "json", "application/json", "txt", "text/plain", "xml", "application/xml",
+                "svg", "image/svg+xml", "png", "image/png", "jpg", "image/jpeg",
+                "jpeg", "image/jpeg", "gif", "image/gif", "ico", "image/x-icon",
+                "webp", "image/webp", "woff", "font/woff", "woff2", "font/woff2",
+                "ttf", "font/ttf", "wasm", "application/wasm", "pdf", "application/pdf",
+                "zip", "application/zip", "gz", "application/gzip", "map", "application/json"
+        };
+        for (int i = 0; i < types.length; i += 2) {
+            CONTENT_TYPES.put(types[i], types[i + 1]);
+        }
+    }
+
+    /**
+     * the cached attributes of a file
+     */
+    private static final class FileInfo {
+        final String name;
+        final Path path;
+        final long size;
+        final long lastModified;
+        final String etag;
+        final String lastModifiedDate;
+        final String contentType;
+        /* the gzip encoded sidecar file, or null */
+        final FileInfo gzip;
+        /* when the attributes were last read, ms */
+        volatile long checked;
+
+        FileInfo(String name, Path path, BasicFileAttributes attrs, String contentType,
+                 FileInfo gzip, String tagSuffix, long now) {
+            this.name = name;
+            this.path = path;
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + tagSuffix + "\"";
+            this.lastModifiedDate = HTTP_DATE.format(
+                    ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC));
+            this.contentType = contentType;
+            this.gzip = gzip;
+            this.checked = now;
+        }
+
+        boolean isSame(BasicFileAttributes attrs) {
+            return attrs.size() == size && attrs.lastModifiedTime().toMillis() == lastModified;
+        }
+
+        boolean isSameGzip(BasicFileAttributes attrs) {
+            return attrs == null ? gzip == null : gzip != null && gzip.isSame(attrs);
+        }
+    }
+
+    private final Path root;
+    private final long checkInterval;
+    private final ConcurrentHashMap<String, FileInfo> cache = new ConcurrentHashMap<String, FileInfo>();
+    private final FileCache contents;
+
+    /**
+     * Creates a handler for the files below root, which checks the cached
+     * file attributes every {@link #DEFAULT_CHECK_INTERVAL} ms.
+     *
+     * @param root the directory to serve the files from
+     * @throws NullPointerException if root is <code>null</code>
+     */
+    public StaticFileHandler(Path root) {
+        this(root, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * Creates a handler for the files below root.
+     *
+     * @param root          the directory to serve the files from
+     * @param checkInterval the time in ms for which cached file attributes are
+     *                      used without checking them against the file system.
+     *                      0 checks them on every request.
+     * @throws NullPointerException     if root is <code>null</code>
+     * @throws IllegalArgumentException if checkInterval is negative
+     */
+    public StaticFileHandler(Path root, long checkInterval) {
+        this(root, checkInterval, null);
+    }
+
+    /**
+     * Creates a handler for the files below root, which sends the files
+     * held by a {@link FileCache} from there.
+     *
+     * @param root          the directory to serve the files from
+     * @param checkInterval the time in ms for which cached file attributes are
+     *                      used without checking them against the file system.
+     *                      0 checks them on every request.
+     * @param contents      the cache of file contents, or <code>null</code>
+     * @throws NullPointerException     if root is <code>null</code>
+     * @throws IllegalArgumentException if checkInterval is negative
+     */
+    public StaticFileHandler(Path root, long checkInterval, FileCache contents) {
+        if (checkInterval < 0) {
+            throw new IllegalArgumentException("negative checkInterval");
+        }
+        this.root = root.toAbsolutePath().normalize();
+        this.checkInterval = checkInterval;
+        this.contents = contents;
+    }
+
+    /**
+     * returns the directory the files are served from
+     *
+     * @return the root directory
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        try {
+            InputStream is = t.getRequestBody();
+            while (is.read() != -1) ;
+            is.close();
+            String method = t.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                t.getResponseHeaders().set("Allow", "GET, HEAD");
+                t.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = t.getRequestPath();
+            String prefix = t.getHttpContext().getPath();
+            String name = path.length() > prefix.length() ? path.substring(prefix.length()) : "";
+            if (name.endsWith("/") || name.length() == 0) {
+                name = name + "index.html";
+            }
+            FileInfo info = lookup(name);
+            if (info == null) {
+                Path dir = resolve(name);
+                if (path.endsWith("/") || dir == null || !dir.startsWith(root) || !Files.isDirectory(dir)) {
+                    t.sendResponseHeaders(404, -1);
+                } else {
+                    /* a directory, its index is served with a trailing / */
+                    t.getResponseHeaders().set("Location", path + "/");
+                    t.sendResponseHeaders(301, -1);
+                }
+                return;
+            }
+            send(t, info);
+        } finally {
+            t.close();
+        }
+    }
+
+    private void send(HttpExchange t, FileInfo info) throws IOException {
+        Headers req = t.getRequestHeaders();
+        Headers rsp = t.getResponseHeaders();
+        if (info.gzip != null) {
+            rsp.set("Vary", "Accept-Encoding");
+            if (acceptsGzip(req.getFirst("Accept-Encoding"))) {
+                info = info.gzip;
+                rsp.set("Content-Encoding", "gzip");
+            }
+        }
+        rsp.set("ETag", info.etag);
+        rsp.set("Last-Modified", info.lastModifiedDate);
+        rsp.set("Accept-Ranges", "bytes");
+        if (notModified(req, info)) {
+            t.sendResponseHeaders(304, -1);
+            return;
+        }
+        rsp.set("Content-Type", info.contentType);
+        long start = 0;
+        long count = info.size;
+        int code = 200;
+        String range = req.getFirst("Range");
+        if (range != null && ifRange(req.getFirst("If-Range"), info)) {
+            long[] r = parseRange(range, info.size);
+            if (r == null) {
+                rsp.set("Content-Range", "bytes */" + info.size);
+                t.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (r.length == 2) {
+                start = r[0];
+                count = r[1] - r[0] + 1;
+                code = 206;
+                rsp.set("Content-Range", "bytes " + r[0] + "-" + r[1] + "/" + info.size);
+            }
+        }
+        if (contents != null && info.size <= contents.getMaxFileSize()) {
+            ByteBuffer buf = contents.get(info.path);
+            /* else the file changed since info was read */
+            if (buf != null && buf.remaining() == info.size) {
+                buf.position((int) start).limit((int) (start + count));
+                t.sendResponse(code, buf);
+                return;
+            }
+        }
+        FileChannel fc;
+        try {
+            fc = FileChannel.open(info.path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            cache.remove(info.name);
+            rsp.remove("ETag");
+            rsp.remove("Last-Modified");
+            rsp.remove("Accept-Ranges");
+            rsp.remove("Content-Type");
+            rsp.remove("Content-Range");
+            rsp.remove("Content-Encoding");
+            rsp.remove("Vary");
+            t.sendResponseHeaders(404, -1);
+            return;
+        }
+        try {
+            t.sendFile(code, fc, start, count);
+        } catch (IOException e) {
+            /* the file may have changed meanwhile */
+            cache.remove(info.name);
+            throw e;
+        } finally {
+            fc.close();
+        }
+    }
+
+    /**
+     * returns true if the conditional headers of the request are
+     * satisfied by the cached attributes. If-None-Match takes
+     * precedence over If-Modified-Since.
+     */
+    private static boolean notModified(Headers req, FileInfo info) {
+        String inm = req.getFirst("If-None-Match");
+        if (inm != null) {
+            return matches(inm, info.etag, true);
+        }
+        String ims = req.getFirst("If-Modified-Since");
+        if (ims != null) {
+            long time = parseDate(ims);
+            return time != -1 && info.lastModified / 1000 <= time / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * returns true if the Range header is to be honoured, ie. there is
+     * no If-Range, or it matches the file
+     */
+    private static boolean ifRange(String ifRange, FileInfo info) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return matches(ifRange, info.etag, false);
+        }
+        long time = parseDate(ifRange);
+        return time != -1 && info.lastModified / 1000 == time / 1000;
+    }
+
+    /**
+     * matches the entity tag against a list of tags, or "*".
+     * The weak comparison ignores W/ prefixes.
+     */
+    private static boolean matches(String list, String etag, boolean weak) {
+        int i = 0;
+        int len = list.length();
+        while (i < len) {
+            int j = list.indexOf(',', i);
+            if (j == -1) {
+                j = len;
+            }
+            String tag = list.substring(i, j).trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                if (!weak) {
+                    return false;
+                }
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+            i = j + 1;
+        }
+        return false;
+    }
+
+    private static long parseDate(String s) {
+        try {
+            return ZonedDateTime.parse(s.trim(), HTTP_DATE).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * parses a Range header against a file of the given size
+     *
+     * @return { first, last } for a single satisfiable byte range, an empty
+     * array if the header is to be ignored, or null if it is not satisfiable
+     */
+    static long[] parseRange(String range, long size) {
+        range = range.trim();
+        if (!range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') != -1) {
+            /* other units and multiple ranges are not supported */
+            return new long[0];
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start, end;
+            if (first.length() == 0) {
+                /* the last n bytes */
+                long n = Long.parseLong(last);
+                if (n <= 0 || size == 0) {
+                    return null;
+                }
+                start = Math.max(0, size - n);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.length() == 0 ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (start < 0 || (last.length() > 0 && Long.parseLong(last) < start)) {
+                    return new long[0];
+                }
+                if (start >= size) {
+                    return null;
+                }
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    /**
+     * returns the path of name below the root, or null if name is not
+     * a valid path, such as one holding a NUL character
+     */
+    private Path resolve(String name) {
+        try {
+            return root.resolve(name.startsWith("/") ? name.substring(1) : name).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * returns the cached attributes of the named file, checking them
+     * against the file system if they are too old. Returns null if
+     * there is no such regular file below the root.
+     */
+    private FileInfo lookup(String name) throws IOException {
+        long now = System.currentTimeMillis();
+        FileInfo info = cache.get(name);
+        if (info != null && now - info.checked < checkInterval) {
+            return info;
+        }
+        Path path = resolve(name);
+        if (path == null || !path.startsWith(root)) {
+            return null;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            cache.remove(name);
+            return null;
+        }
+        if (!attrs.isRegularFile() || !Files.isReadable(path)
+                || !path.toRealPath().startsWith(root.toRealPath())) {
+            cache.remove(name);
+            return null;
+        }
+        Path gzPath = path.resolveSibling(path.getFileName() + ".gz");
+        BasicFileAttributes gzAttrs = gzipAttributes(gzPath, attrs);
+        if (info != null && info.isSame(attrs) && info.isSameGzip(gzAttrs)) {
+            info.checked = now;
+            return info;
+        }
+        if (cache.size() >= MAX_CACHED_FILES) {
+            cache.clear();
+        }
+        String type = contentType(path);
+        FileInfo gzip = gzAttrs == null ? null : new FileInfo(name, gzPath, gzAttrs, type, null, "-gz", now);
+        info = new FileInfo(name, path, attrs, type, gzip, "", now);
+        cache.put(name, info);
+        return info;
+    }
+
+    /**
+     * returns the attributes of the gzip sidecar of a file, or null if there
+     * is none, or it is older than the file
+     */
+    private static BasicFileAttributes gzipAttributes(Path gzPath, BasicFileAttributes attrs)
+            throws IOException {
+        BasicFileAttributes gzAttrs;
+        try {
+            gzAttrs = Files.readAttributes(gzPath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!gzAttrs.isRegularFile()
+                || gzAttrs.lastModifiedTime().compareTo(attrs.lastModifiedTime()) < 0) {
+            return null;
+        }
+        return gzAttrs;
+    }
+
+    /**
+     * returns true if the Accept-Encoding header allows gzip
+     */
+    static boolean acceptsGzip(String accept) {
+        return accept != null && CompressionFilter.quality(accept, "gzip") > 0;
+    }
+
+    /**
+     * Writes a gzip encoded sidecar file <code>name.gz</code> next to each
+     * compressible file below the root which is larger than minSize bytes,
+     * unless it has one which is up to date. The handler sends the sidecar
+     * instead of the file to clients which accept the gzip encoding.
+     * Sidecars which would not be smaller than their file are not written.
+     * This can be called at startup, or while the handler is in use.
+     *
+     * @param minSize the size of the largest file which is not compressed
+     * @return the number of sidecar files written
+     * @throws IOException if a file could not be read or written
+     */
+    public int precompress(long minSize) throws IOException {
+        int n = 0;
+        Stream<Path> walk = Files.walk(root);
+        try {
+            Iterator<Path> files = walk.iterator();
+            while (files.hasNext()) {
+                Path path = files.next();
+                String name = path.getFileName().toString();
+                if (name.endsWith(".gz") || !Files.isRegularFile(path)
+                        || Files.size(path) <= minSize || !isCompressible(contentType(path))) {
+                    continue;
+                }
+                Path gzPath = path.resolveSibling(name + ".gz");
+                FileTime mtime = Files.getLastModifiedTime(path);
+                if (Files.exists(gzPath) && Files.getLastModifiedTime(gzPath).compareTo(mtime) >= 0) {
+                    continue;
+                }
+                Path tmp = Files.createTempFile(path.getParent(), name, ".tmp");
+                try {
+                    OutputStream os = new GZIPOutputStream(Files.newOutputStream(tmp), 8192);
+                    try {
+                        Files.copy(path, os);
+                    } finally {
+                        os.close();
+                    }
+                    if (Files.size(tmp) >= Files.size(path)) {
+                        continue;
+                    }
+                    /* the sidecar is only used while it is not older than the file */
+                    Files.setLastModifiedTime(tmp, mtime);
+                    Files.move(tmp, gzPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    n++;
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        } finally {
+            walk.close();
+        }
+        return n;
+    }
+
+    /**
+     * returns true for content types which are worth compressing
+     */
+    protected boolean isCompressible(String contentType) {
+        return CompressionFilter.isCompressible(contentType);
+    }
+
+    /**
+     * returns the content type for the file, by its extension
+     */
+    protected String contentType(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot != -1) {
+            String type = CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (type != null) {
+                return type;
+            }
+        }
+        FileNameMap map = URLConnection.getFileNameMap();
+        String type = map.getContentTypeFor(name);
+        return type != null ? type : "application/octet-stream";
+    }
+}
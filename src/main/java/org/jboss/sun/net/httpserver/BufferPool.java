@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2005, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.sun.net.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A server wide pool of direct buffers for the I/O of the connections.
+ * <p>
+ * Buffers come in a few size classes, each a power of two. A class is
+ * refilled by slicing a slab of SLAB_BUFFERS buffers from one direct
+ * allocation, so that few direct allocations are made. Connections lease
+ * buffers while they read or write and release them when they go idle;
+ * the pool keeps up to maxBytes of released buffers in each class and
+ * drops the rest. Larger requests than the largest class get heap buffers
+ * which are not pooled.
+ * <p>
+ * The free lists are shared lock-free queues rather than per-thread
+ * caches: exchanges usually run on virtual threads, one per exchange,
+ * whose caches would never be used again.
+ */
+class BufferPool {
+
+    static final int MIN_SIZE = 4 * 1024;
+    static final int MAX_SIZE = 64 * 1024;
+    /* buffers sliced from one direct allocation */
+    static final int SLAB_BUFFERS = 16;
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+    /* buffers in each free list, approximately */
+    private final AtomicInteger[] counts;
+    private final int[] maxBuffers;
+
+    /**
+     * @param maxBytes the most bytes of idle buffers kept per size class
+     */
+    @SuppressWarnings("unchecked")
+    BufferPool(long maxBytes) {
+        int classes = sizeClass(MAX_SIZE) + 1;
+        free = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[classes];
+        counts = new AtomicInteger[classes];
+        maxBuffers = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            counts[i] = new AtomicInteger();
+            maxBuffers[i] = (int) Math.min(Integer.MAX_VALUE, maxBytes / (MIN_SIZE << i));
+        }
+    }
+
+    /**
+     * returns the index of the smallest class holding size bytes,
+     * -1 if none does
+     */
+    private static int sizeClass(int size) {
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        int c = 0;
+        while ((MIN_SIZE << c) < size) {
+            c++;
+        }
+        return c;
+    }
+
+    /**
+     * returns a cleared buffer of at least size bytes, which is
+     * handed back with release() when it is no longer used
+     */
+    ByteBuffer lease(int size) {
+        int c = sizeClass(size);
+        if (c == -1) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer b = free[c].poll();
+        if (b != null) {
+            counts[c].decrementAndGet();
+            b.clear();
+            return b;
+        }
+        return refill(c);
+    }
+
+    /**
+     * slices a new slab for class c, keeping all but one of its buffers
+     */
+    private ByteBuffer refill(int c) {
+        int size = MIN_SIZE << c;
+        int n = Math.max(1, Math.min(SLAB_BUFFERS, maxBuffers[c] - counts[c].get()));
+        ByteBuffer slab = ByteBuffer.allocateDirect(size * n);
+        for (int i = 1; i < n; i++) {
+            slab.limit(size * (i + 1)).position(size * i);
+            release(slab.slice());
+        }
+        slab.limit(size).position(0);
+        return slab.slice();
+    }
+
+    /**
+     * hands back a buffer from lease(). The caller must not use it any more
+     */
+    void release(ByteBuffer b) {
+        if (!b.isDirect()) {
+            return;
+        }
+        int c = sizeClass(b.capacity());
+        if (c == -1 || b.capacity() != MIN_SIZE << c) {
+            return;
+        }
+        if (counts[c].incrementAndGet() > maxBuffers[c]) {
+            counts[c].decrementAndGet();
+            return;
+        }
+        free[c].offer(b);
+    }
+}
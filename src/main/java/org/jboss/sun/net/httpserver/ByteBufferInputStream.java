@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2005, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.sun.net.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+
+/**
+ * an InputStream over a ByteBuffer which is refilled from the connection.
+ * The buffered bytes are exposed, so that the request head can be parsed
+ * in place, and the body read from the same buffer afterwards.
+ */
+abstract class ByteBufferInputStream extends InputStream {
+
+    /* bytes after the buffer position already searched for the end of a request head */
+    int scanned;
+
+    /**
+     * returns the buffered bytes, between position and limit. Callers
+     * consume bytes by advancing the position. The buffer returned may
+     * change after a call to fill()
+     */
+    abstract ByteBuffer buffer();
+
+    /**
+     * reads more bytes from the connection, blocking until at least one
+     * is available. The bytes are appended after the ones already
+     * buffered, compacting or enlarging the buffer as needed.
+     *
+     * @return the number of bytes added, or -1 at end of stream
+     */
+    abstract int fill() throws IOException;
+
+    /**
+     * reads whatever the connection has available without blocking,
+     * for the dispatcher thread
+     *
+     * @return the number of bytes added, possibly 0, or -1 at end of stream
+     */
+    abstract int fillNow() throws IOException;
+
+    /**
+     * the readiness fillNow() waits for to make progress. This is
+     * OP_READ, unless a TLS handshake waits for a record to be sent,
+     * or for its delegated tasks to run
+     */
+    int interestOps() {
+        return SelectionKey.OP_READ;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ByteBuffer buf = buffer();
+        if (!buf.hasRemaining()) {
+            if (fill() == -1) {
+                return -1;
+            }
+            buf = buffer();
+        }
+        return buf.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer buf = buffer();
+        if (!buf.hasRemaining()) {
+            if (fill() == -1) {
+                return -1;
+            }
+            buf = buffer();
+        }
+        int n = Math.min(len, buf.remaining());
+        buf.get(b, off, n);
+        return n;
+    }
+
+    /* Does not query the OS socket */
+    @Override
+    public int available() throws IOException {
+        return buffer().remaining();
+    }
+}
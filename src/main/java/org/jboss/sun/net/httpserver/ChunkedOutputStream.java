@@ -55,12 +55,15 @@ class ChunkedOutputStream extends FilterOutputStream
     final static int OFFSET = 6; /* initial <=4 bytes for len + CRLF */
     private int pos = OFFSET;
     private int count = 0;
-    private byte[] buf = new byte [CHUNK_SIZE+OFFSET+2];
+    final static int BUFSIZE = CHUNK_SIZE+OFFSET+2;
+    /* reused by the responses on a connection */
+    private byte[] buf;
     ExchangeImpl t;
 
     ChunkedOutputStream (ExchangeImpl t, OutputStream src) {
         super (src);
         this.t = t;
+        buf = t.getConnection().takeChunkBuffer();
     }
 
     public void write (int b) throws IOException {
@@ -132,7 +135,10 @@ class ChunkedOutputStream extends FilterOutputStream
         if (closed) {
             return;
         }
-        flush();
+        if (count > 0) {
+            /* not flushed, so that it goes out with the last chunk */
+            writeChunk();
+        }
         try {
             /* write an empty chunk */
             writeChunk();
@@ -146,6 +152,8 @@ class ChunkedOutputStream extends FilterOutputStream
 
         } finally {
             closed = true;
+            t.getConnection().releaseChunkBuffer (buf);
+            buf = null;
         }
 
         WriteFinishedEvent e = new WriteFinishedEvent (t);
@@ -25,31 +25,52 @@
 
 package org.jboss.sun.net.httpserver;
 
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 class ContextList {
 
     final static int MAX_CONTEXTS = 50;
 
-    private LinkedList<HttpContextImpl> list = new LinkedList<>();
+    /* copy on write, so that requests look up contexts without locking */
+    private final List<HttpContextImpl> list = new CopyOnWriteArrayList<>();
 
     public synchronized void add(HttpContextImpl ctx) {
         //DISABLED assert ctx.getPath() != null;
         list.add(ctx);
     }
 
-    public synchronized int size() {
+    public int size() {
         return list.size();
     }
 
     /** initially contexts are located only by protocol:path.
      * Context with longest prefix matches (currently case-sensitive)
      */
-    synchronized HttpContextImpl findContext(String protocol, String path) {
+    HttpContextImpl findContext(String protocol, String path) {
         return findContext(protocol, path, false);
     }
 
-    private synchronized HttpContextImpl findContext(String protocol, String path, boolean exact) {
+    /**
+     * as findContext(protocol, path), for the path s[from, to).
+     * Saves cutting the path out of the request line.
+     */
+    HttpContextImpl findContext(String protocol, String s, int from, int to) {
+        int longest = 0;
+        HttpContextImpl lc = null;
+        for (HttpContextImpl ctx : list) {
+            String cPath = ctx.getPath();
+            int len = cPath.length();
+            if (len > longest && len <= to - from && s.startsWith(cPath, from)
+                    && ctx.getProtocol().equalsIgnoreCase(protocol)) {
+                longest = len;
+                lc = ctx;
+            }
+        }
+        return lc;
+    }
+
+    private HttpContextImpl findContext(String protocol, String path, boolean exact) {
         protocol = protocol.toLowerCase();
         String longest = "";
         HttpContextImpl lc = null;
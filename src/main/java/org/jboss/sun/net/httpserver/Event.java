@@ -39,5 +39,8 @@ class WriteFinishedEvent extends Event {
         super (t);
         //DISABLED assert !t.writefinished;
         t.writefinished = true;
+        if (t.ros instanceof PipelinedOutputStream) {
+            ((PipelinedOutputStream) t.ros).finished (false);
+        }
     }
 }
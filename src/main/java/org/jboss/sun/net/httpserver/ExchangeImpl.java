@@ -28,10 +28,10 @@ package org.jboss.sun.net.httpserver;
 import org.jboss.com.sun.net.httpserver.Headers;
 import org.jboss.com.sun.net.httpserver.HttpExchange;
 import org.jboss.com.sun.net.httpserver.HttpPrincipal;
+import org.jboss.com.sun.net.httpserver.ResponseFilterStream;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -39,8 +39,8 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -50,8 +50,10 @@ class ExchangeImpl {
     Request req;
     String method;
     boolean writefinished;
-    URI uri;
+    /* the URI is only created if it is asked for */
+    RequestTarget target;
     HttpConnection connection;
+    HttpContextImpl ctx;
     long reqContentLen;
     long rspContentLen;
     /* rawIn streams which access the socket directly */
@@ -63,19 +65,6 @@ class ExchangeImpl {
     boolean closed;
     boolean http10 = false;
 
-    /* for formatting the Date: header */
-    private static final String pattern = "EEE, dd MMM yyyy HH:mm:ss zzz";
-    private static final TimeZone gmtTZ = TimeZone.getTimeZone("GMT");
-    private static final ThreadLocal<DateFormat> dateFormat =
-            new ThreadLocal<DateFormat>() {
-                @Override
-                protected DateFormat initialValue() {
-                    DateFormat df = new SimpleDateFormat(pattern, Locale.US);
-                    df.setTimeZone(gmtTZ);
-                    return df;
-                }
-            };
-
     private static final String HEAD = "HEAD";
 
     /* streams which take care of the HTTP protocol framing
@@ -85,6 +74,8 @@ class ExchangeImpl {
     OutputStream uos;
     LeftOverInputStream uis_orig; // uis may have be a user supplied wrapper
     PlaceholderOutputStream uos_orig;
+    /* the streams set by filters which want to see the response headers */
+    List<ResponseFilterStream> filterStreams;
 
     boolean sentHeaders; /* true after response headers sent */
     Map<String, Object> contextAttributes;
@@ -94,14 +85,17 @@ class ExchangeImpl {
     ServerImpl server;
 
     ExchangeImpl(
-            String m, URI u, Request req, long len, HttpConnection connection
+            String m, RequestTarget target, Request req, long len, HttpConnection connection,
+            HttpContextImpl ctx
     ) throws IOException {
         this.req = req;
         this.reqHdrs = req.headers();
         this.rspHdrs = new Headers();
         this.method = m;
-        this.uri = u;
+        this.target = target;
         this.connection = connection;
+        /* not taken from the connection, pipelined requests may differ */
+        this.ctx = ctx;
         this.reqContentLen = len;
         /* ros only used for headers, body written directly to stream */
         this.ros = req.outputStream();
@@ -119,7 +113,11 @@ class ExchangeImpl {
     }
 
     public URI getRequestURI() {
-        return uri;
+        return target.uri();
+    }
+
+    public String getRequestPath() {
+        return target.path();
     }
 
     public String getRequestMethod() {
@@ -127,7 +125,7 @@ class ExchangeImpl {
     }
 
     public HttpContextImpl getHttpContext() {
-        return connection.getHttpContext();
+        return ctx;
     }
 
     private boolean isHeadRequest() {
@@ -221,13 +219,16 @@ class ExchangeImpl {
             throw new IOException("headers already sent");
         }
         this.rcode = rCode;
-        String statusLine = "HTTP/1.1 " + rCode + Code.msg(rCode) + "\r\n";
-        OutputStream tmpout = new BufferedOutputStream(ros);
         PlaceholderOutputStream o = getPlaceholderResponseBody();
-        tmpout.write(bytes(statusLine, 0), 0, statusLine.length());
         // assume there is content
         boolean noContentToSend = false;
-        rspHdrs.set("Date", dateFormat.get().format(new Date()));
+        rspHdrs.set("Date", ResponseHead.date());
+        if (filterStreams != null) {
+            /* the stream set last sees the handler's bytes first */
+            for (int i = filterStreams.size() - 1; i >= 0; i--) {
+                contentLen = filterStreams.get(i).beforeHeaders(rCode, rspHdrs, contentLen);
+            }
+        }
 
         /** check for response type that is not allowed to send a body */
 
@@ -273,10 +274,28 @@ class ExchangeImpl {
                 o.setWrappedStream(new FixedLengthOutputStream(this, ros, contentLen));
             }
         }
-        write(rspHdrs, tmpout);
+        /* the whole head goes out in a single write. For a body of
+         * fixed length it waits for the start of the body, the SSL
+         * stream collects it in the record of the body by itself.
+         * Chunked and streamed heads are sent at once, because the
+         * handler may not write anything for a long time */
+        boolean cork = !noContentToSend && contentLen > 0
+                && (ros instanceof Request.WriteStream || ros instanceof SSLStreams.OutputStream);
+        if (cork && ros instanceof Request.WriteStream) {
+            ((Request.WriteStream) ros).cork();
+        }
+        ResponseHead head = connection.takeResponseHead();
+        try {
+            head.statusLine(rCode);
+            head.headers(rspHdrs);
+            head.writeTo(ros);
+        } finally {
+            connection.releaseResponseHead(head);
+        }
+        if (!cork) {
+            ros.flush();
+        }
         this.rspContentLen = contentLen;
-        tmpout.flush();
-        tmpout = null;
         sentHeaders = true;
         if (noContentToSend) {
             WriteFinishedEvent e = new WriteFinishedEvent(this);
@@ -286,48 +305,53 @@ class ExchangeImpl {
         server.logReply(rCode, req.requestLine(), null);
     }
 
-    void write(Headers map, OutputStream os) throws IOException {
-        Set<Map.Entry<String, List<String>>> entries = map.entrySet();
-        for (Map.Entry<String, List<String>> entry : entries) {
-            String key = entry.getKey();
-            byte[] buf;
-            List<String> values = entry.getValue();
-            for (String val : values) {
-                int i = key.length();
-                buf = bytes(key, 2);
-                buf[i++] = ':';
-                buf[i++] = ' ';
-                os.write(buf, 0, i);
-                buf = bytes(val, 2);
-                i = val.length();
-                buf[i++] = '\r';
-                buf[i++] = '\n';
-                os.write(buf, 0, i);
-            }
+    /**
+     * sends count bytes of the file from position as the response body.
+     * Unless a filter has replaced the response stream, the bytes go
+     * through FixedLengthOutputStream.transferFrom(), which passes them
+     * from the file to the socket directly for plain connections.
+     */
+    void sendFile(int rCode, FileChannel fc, long position, long count) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("negative position or count");
+        }
+        if (isHeadRequest()) {
+            rspHdrs.set("Content-length", Long.toString(count));
+            sendResponseHeaders(rCode, -1);
+            return;
+        }
+        sendResponseHeaders(rCode, count == 0 ? -1 : count);
+        if (count == 0 || closed) {
+            /* no body, or none allowed for rCode */
+            return;
+        }
+        OutputStream os = getResponseBody();
+        if (os == uos_orig && uos_orig.wrapped instanceof FixedLengthOutputStream) {
+            ((FixedLengthOutputStream) uos_orig.wrapped).transferFrom(fc, position, count);
+        } else {
+            FixedLengthOutputStream.copy(fc, position, count, os);
         }
-        os.write('\r');
-        os.write('\n');
+        os.close();
     }
 
-    private byte[] rspbuf = new byte[128]; // used by bytes()
-
-    /**
-     * convert string to byte[], using rspbuf
-     * Make sure that at least "extra" bytes are free at end
-     * of rspbuf. Reallocate rspbuf if not big enough.
-     * caller must check return value to see if rspbuf moved
-     */
-    private byte[] bytes(String s, int extra) {
-        int slen = s.length();
-        if (slen + extra > rspbuf.length) {
-            int diff = slen + extra - rspbuf.length;
-            rspbuf = new byte[2 * (rspbuf.length + diff)];
+    void sendResponse(int rCode, ByteBuffer body) throws IOException {
+        int count = body.remaining();
+        if (isHeadRequest()) {
+            rspHdrs.set("Content-length", Integer.toString(count));
+            sendResponseHeaders(rCode, -1);
+            return;
         }
-        char c[] = s.toCharArray();
-        for (int i = 0; i < c.length; i++) {
-            rspbuf[i] = (byte) c[i];
+        sendResponseHeaders(rCode, count == 0 ? -1 : count);
+        if (count == 0 || closed) {
+            return;
         }
-        return rspbuf;
+        OutputStream os = getResponseBody();
+        if (os == uos_orig && uos_orig.wrapped instanceof FixedLengthOutputStream) {
+            ((FixedLengthOutputStream) uos_orig.wrapped).write(body.duplicate());
+        } else {
+            FixedLengthOutputStream.copy(body.duplicate(), os);
+        }
+        os.close();
     }
 
     public InetSocketAddress getRemoteAddress() {
@@ -427,6 +451,12 @@ class ExchangeImpl {
         }
         if (o != null) {
             uos = o;
+            if (o instanceof ResponseFilterStream) {
+                if (filterStreams == null) {
+                    filterStreams = new ArrayList<ResponseFilterStream>(2);
+                }
+                filterStreams.add((ResponseFilterStream) o);
+            }
         }
     }
 
@@ -28,6 +28,8 @@ package org.jboss.sun.net.httpserver;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * a class which allows the caller to write up to a defined
@@ -60,6 +62,10 @@ class FixedLengthOutputStream extends FilterOutputStream
         }
         out.write(b);
         remaining --;
+        if (remaining == 0) {
+            /* the response is complete, send what may be held back */
+            out.flush();
+        }
     }
 
     public void write (byte[]b, int off, int len) throws IOException {
@@ -76,6 +82,86 @@ class FixedLengthOutputStream extends FilterOutputStream
         }
         out.write(b, off, len);
         remaining -= len;
+        if (remaining == 0) {
+            out.flush();
+        }
+    }
+
+    /**
+     * writes count bytes of the file from position. They are transferred
+     * to the channel directly if the underlying stream is the connection's,
+     * and copied otherwise, eg. for SSL.
+     */
+    void transferFrom (FileChannel fc, long position, long count) throws IOException {
+        if (closed) {
+            throw new IOException ("stream closed");
+        }
+        if (count > remaining) {
+            throw new IOException ("too many bytes to write to stream");
+        }
+        if (out instanceof Request.WriteStream) {
+            ((Request.WriteStream) out).transferFrom (fc, position, count);
+        } else {
+            copy (fc, position, count, out);
+        }
+        remaining -= count;
+        if (remaining == 0) {
+            out.flush();
+        }
+    }
+
+    /**
+     * writes the remaining bytes of buf. They are written to the channel
+     * from buf itself if the underlying stream is the connection's.
+     */
+    void write (ByteBuffer buf) throws IOException {
+        if (closed) {
+            throw new IOException ("stream closed");
+        }
+        int len = buf.remaining();
+        if (len > remaining) {
+            throw new IOException ("too many bytes to write to stream");
+        }
+        if (out instanceof Request.WriteStream) {
+            ((Request.WriteStream) out).write (buf);
+        } else {
+            copy (buf, out);
+        }
+        remaining -= len;
+        if (remaining == 0) {
+            out.flush();
+        }
+    }
+
+    static void copy (ByteBuffer buf, OutputStream os) throws IOException {
+        if (buf.hasArray()) {
+            os.write (buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position (buf.limit());
+            return;
+        }
+        byte[] b = new byte [Math.min (buf.remaining(), 16 * 1024)];
+        while (buf.hasRemaining()) {
+            int n = Math.min (b.length, buf.remaining());
+            buf.get (b, 0, n);
+            os.write (b, 0, n);
+        }
+    }
+
+    static void copy (FileChannel fc, long position, long count, OutputStream os) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate ((int) Math.min (count, 16 * 1024));
+        while (count > 0) {
+            buf.clear();
+            if (buf.remaining() > count) {
+                buf.limit ((int) count);
+            }
+            int n = fc.read (buf, position);
+            if (n == -1) {
+                throw new IOException ("unexpected end of file");
+            }
+            os.write (buf.array(), 0, n);
+            position += n;
+            count -= n;
+        }
     }
 
     public void close () throws IOException {
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2005, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.sun.net.httpserver;
+
+import org.jboss.com.sun.net.httpserver.HandshakeStatistics;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * runs the delegated tasks of the SSLEngines of a https server on a
+ * bounded pool of threads, and keeps the handshake counters. The tasks
+ * of one handshake step are queued together. Once they have run, the
+ * connection's dispatcher goes on with the handshake.
+ */
+class HandshakeExecutor extends HandshakeStatistics {
+
+    private final Logger logger;
+    private final ThreadPoolExecutor pool;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    /* in ns */
+    private final AtomicLong handshakeTime = new AtomicLong();
+    private final AtomicLong queueTime = new AtomicLong();
+    private final AtomicLong taskTime = new AtomicLong();
+
+    /**
+     * @param threads the most handshake steps run at the same time
+     * @param maxQueued the most handshake steps waiting for a thread
+     */
+    HandshakeExecutor(Logger logger, int threads, int maxQueued) {
+        this.logger = logger;
+        pool = new ThreadPoolExecutor(
+                threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueued),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "HTTP-Handshake-" + count.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * queues the delegated tasks of c's engine. The dispatcher of c
+     * resumes the handshake once they have run
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    void execute(final HttpConnection c, final List<Runnable> tasks) {
+        final long queued = System.nanoTime();
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    queueTime.addAndGet(start - queued);
+                    try {
+                        for (Runnable task : tasks) {
+                            task.run();
+                        }
+                    } catch (RuntimeException e) {
+                        /* the engine reports the failure on the next unwrap or wrap */
+                        logger.log(Level.FINER, "HandshakeExecutor", e);
+                    } finally {
+                        taskTime.addAndGet(System.nanoTime() - start);
+                        c.sslStreams.tasksDone();
+                        c.getDispatcher().resumeHandshake(c);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    void handshakeStarted() {
+        started.incrementAndGet();
+    }
+
+    /**
+     * @param time the duration of the handshake in ns
+     * @param resumption true if an existing session was resumed
+     */
+    void handshakeCompleted(long time, boolean resumption) {
+        handshakeTime.addAndGet(time);
+        if (resumption) {
+            resumed.incrementAndGet();
+        }
+        completed.incrementAndGet();
+    }
+
+    void handshakeFailed() {
+        failed.incrementAndGet();
+    }
+
+    @Override
+    public long getActiveHandshakes() {
+        return Math.max(0, started.get() - completed.get() - failed.get() - rejected.get());
+    }
+
+    @Override
+    public long getCompletedHandshakes() {
+        return completed.get();
+    }
+
+    @Override
+    public long getResumedHandshakes() {
+        return resumed.get();
+    }
+
+    @Override
+    public long getFullHandshakes() {
+        return Math.max(0, completed.get() - resumed.get());
+    }
+
+    @Override
+    public long getFailedHandshakes() {
+        return failed.get();
+    }
+
+    @Override
+    public long getRejectedHandshakes() {
+        return rejected.get();
+    }
+
+    @Override
+    public int getQueuedTasks() {
+        return pool.getQueue().size();
+    }
+
+    @Override
+    public int getRunningTasks() {
+        return pool.getActiveCount();
+    }
+
+    @Override
+    public long getTotalHandshakeTime() {
+        return TimeUnit.NANOSECONDS.toMillis(handshakeTime.get());
+    }
+
+    @Override
+    public long getTotalQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(queueTime.get());
+    }
+
+    @Override
+    public long getTotalTaskTime() {
+        return TimeUnit.NANOSECONDS.toMillis(taskTime.get());
+    }
+}
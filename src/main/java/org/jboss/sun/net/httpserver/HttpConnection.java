@@ -28,12 +28,16 @@ package org.jboss.sun.net.httpserver;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 /**
@@ -51,32 +55,65 @@ class HttpConnection {
     /**
      * high level streams returned to application
      */
-    private InputStream inputStream;
+    private ByteBufferInputStream inputStream;
 
     /**
      * low level stream that sits directly over channel
      */
-    InputStream rawIn;
+    ByteBufferInputStream rawIn;
     OutputStream rawOut;
 
     private SocketChannel chan;
     SelectionKey selectionKey;
     private String protocol;
-    long time;
-    // time this connection was created
+    // time the current request was started
     volatile long creationTime;
-    // time we started writing the response
-    volatile long rspStartedTime;
+    /* reused for the response heads, by one exchange at a time */
+    private final AtomicReference<ResponseHead> responseHead = new AtomicReference<ResponseHead>();
+    /* the buffer of chunked responses, while none uses it */
+    private final AtomicReference<byte[]> chunkBuffer = new AtomicReference<byte[]>();
+    /* exchanges handed to the executor and not yet finished, dispatcher only */
+    int pending;
+    /* close once the pending exchanges are finished, dispatcher only */
+    boolean closePending;
+    /* the first response stream of the pipelined requests being handled */
+    volatile PipelinedOutputStream pipeline;
     private int remaining;
     boolean closed = false;
     private Logger logger;
 
-    public enum State {IDLE, REQUEST, RESPONSE}
+    public enum State {IDLE, REQUEST, RESPONSE, CLOSED}
 
     ;
-    volatile State state;
+    private static final AtomicReferenceFieldUpdater<HttpConnection, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(HttpConnection.class, State.class, "state");
+    /* a new connection is waiting for its first request */
+    volatile State state = State.REQUEST;
     private final Map<String, Object> attributes = new HashMap<String, Object>();
     private final ServerImpl server;
+    private final ServerImpl.Dispatcher dispatcher;
+
+    /**
+     * the idle, request or response timeout, depending on the state
+     */
+    final TimerWheel.Timeout timeout = new TimerWheel.Timeout() {
+        @Override
+        void expired() {
+            server.timeout(HttpConnection.this);
+        }
+    };
+
+    /**
+     * The channel stays in non-blocking mode and registered with the
+     * dispatcher's selector for the whole life of the connection.
+     * A thread which needs to block on the channel records the operations
+     * it waits for in waitOps, and the dispatcher sets them in readyOps
+     * when the selector reports them. Both are guarded by ioLock.
+     */
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private final Condition ioReady = ioLock.newCondition();
+    private int waitOps;
+    private int readyOps;
 
     @Override
     public String toString() {
@@ -87,8 +124,9 @@ class HttpConnection {
         return s;
     }
 
-    HttpConnection(ServerImpl server) {
+    HttpConnection(ServerImpl server, ServerImpl.Dispatcher dispatcher) {
         this.server = server;
+        this.dispatcher = dispatcher;
     }
 
     void setChannel(SocketChannel c) {
@@ -103,14 +141,28 @@ class HttpConnection {
         return state;
     }
 
-    void setState(State s) {
-        state = s;
+    /**
+     * atomically moves the connection from one state to another, keeping
+     * the dispatcher's count of idle connections up to date
+     *
+     * @return false if the connection was not in the expected state
+     */
+    boolean setState(State expect, State update) {
+        if (!STATE.compareAndSet(this, expect, update)) {
+            return false;
+        }
+        if (expect == State.IDLE) {
+            dispatcher.idleCount.decrementAndGet();
+        } else if (update == State.IDLE) {
+            dispatcher.idleCount.incrementAndGet();
+        }
+        return true;
     }
 
     void setParameters(
-            InputStream in, OutputStream rawout, SocketChannel chan,
+            ByteBufferInputStream in, OutputStream rawout, SocketChannel chan,
             SSLEngine engine, SSLStreams sslStreams, SSLContext sslContext, String protocol,
-            HttpContextImpl context, InputStream raw
+            HttpContextImpl context, ByteBufferInputStream raw
     ) {
         this.context = context;
         this.inputStream = in;
@@ -124,6 +176,34 @@ class HttpConnection {
         this.logger = context.getLogger();
     }
 
+    /**
+     * returns the connection's response head encoder, or a new one
+     * while pipelined exchanges use it
+     */
+    ResponseHead takeResponseHead() {
+        ResponseHead h = responseHead.getAndSet(null);
+        return h != null ? h : new ResponseHead();
+    }
+
+    void releaseResponseHead(ResponseHead h) {
+        if (h.reset()) {
+            responseHead.set(h);
+        }
+    }
+
+    /**
+     * returns the connection's buffer for chunked responses, or a new
+     * one while pipelined exchanges use it
+     */
+    byte[] takeChunkBuffer() {
+        byte[] b = chunkBuffer.getAndSet(null);
+        return b != null ? b : new byte[ChunkedOutputStream.BUFSIZE];
+    }
+
+    void releaseChunkBuffer(byte[] b) {
+        chunkBuffer.set(b);
+    }
+
     SocketChannel getChannel() {
         return chan;
     }
@@ -133,12 +213,17 @@ class HttpConnection {
             return;
         }
         closed = true;
+        if (STATE.getAndSet(this, State.CLOSED) == State.IDLE) {
+            dispatcher.idleCount.decrementAndGet();
+        }
+        signalReady(0);
         if (logger != null && chan != null) {
             logger.finest("Closing connection: " + chan.toString());
         }
 
         if (!chan.isOpen()) {
             server.dPrint("Channel already closed");
+            discardPipeline();
             return;
         }
         try {
@@ -168,6 +253,88 @@ class HttpConnection {
         } catch (IOException e) {
             server.dPrint(e);
         }
+        discardPipeline();
+    }
+
+    /* fails the writers of pipelined responses which wait for their turn */
+    private void discardPipeline() {
+        PipelinedOutputStream p = pipeline;
+        if (p != null) {
+            pipeline = null;
+            p.discard();
+        }
+    }
+
+    /**
+     * block the calling thread until the channel is ready for the given
+     * operation (OP_READ or OP_WRITE). The interest is enabled on the
+     * connection's key by the dispatcher, unless the caller is that
+     * dispatcher itself, in which case a temporary selector is used.
+     */
+    void awaitReady(int op) throws IOException {
+        if (dispatcher.isDispatcherThread()) {
+            dispatcher.awaitReady(this, op);
+            return;
+        }
+        ioLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("connection closed");
+            }
+            readyOps &= ~op;
+            waitOps |= op;
+            dispatcher.enableInterest(this);
+            while ((readyOps & op) == 0) {
+                if (closed) {
+                    throw new IOException("connection closed");
+                }
+                ioReady.await();
+            }
+            readyOps &= ~op;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            waitOps &= ~op;
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * called by the dispatcher thread to set the interest ops
+     * of the key to the operations currently waited for
+     */
+    void updateInterest() {
+        ioLock.lock();
+        try {
+            if (!closed) {
+                selectionKey.interestOps(waitOps);
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * called by the dispatcher thread when the selector reports the key
+     * as ready. Returns false if no thread is waiting on this connection,
+     * meaning that the connection is being handed to a new exchange
+     */
+    boolean signalReady(int ops) {
+        ioLock.lock();
+        try {
+            if (ops != 0 && waitOps == 0) {
+                return false;
+            }
+            readyOps |= ops;
+            if (!closed && selectionKey != null && selectionKey.isValid()) {
+                selectionKey.interestOps(waitOps & ~ops);
+            }
+            ioReady.signalAll();
+            return true;
+        } finally {
+            ioLock.unlock();
+        }
     }
 
     /**
@@ -182,11 +349,18 @@ class HttpConnection {
         return remaining;
     }
 
+    /**
+     * the dispatcher whose selector this connection is registered with
+     */
+    ServerImpl.Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
     SelectionKey getSelectionKey() {
         return selectionKey;
     }
 
-    InputStream getInputStream() {
+    ByteBufferInputStream getInputStream() {
         return inputStream;
     }
 
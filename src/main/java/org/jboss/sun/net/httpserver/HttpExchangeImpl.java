@@ -34,6 +34,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 class HttpExchangeImpl extends HttpExchange {
 
@@ -58,6 +60,11 @@ class HttpExchangeImpl extends HttpExchange {
         return impl.getRequestURI();
     }
 
+    @Override
+    public String getRequestPath() {
+        return impl.getRequestPath();
+    }
+
     @Override
     public String getRequestMethod() {
         return impl.getRequestMethod();
@@ -95,6 +102,17 @@ class HttpExchangeImpl extends HttpExchange {
         impl.sendResponseHeaders(rCode, contentLen);
     }
 
+    @Override
+    public void sendFile(int rCode, FileChannel channel, long position, long count)
+            throws IOException {
+        impl.sendFile(rCode, channel, position, count);
+    }
+
+    @Override
+    public void sendResponse(int rCode, ByteBuffer body) throws IOException {
+        impl.sendResponse(rCode, body);
+    }
+
     @Override
     public InetSocketAddress getRemoteAddress() {
         return impl.getRemoteAddress();
@@ -36,6 +36,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 class HttpsExchangeImpl extends HttpsExchange {
 
@@ -60,6 +62,11 @@ class HttpsExchangeImpl extends HttpsExchange {
         return impl.getRequestURI();
     }
 
+    @Override
+    public String getRequestPath() {
+        return impl.getRequestPath();
+    }
+
     @Override
     public String getRequestMethod() {
         return impl.getRequestMethod();
@@ -96,6 +103,17 @@ class HttpsExchangeImpl extends HttpsExchange {
         impl.sendResponseHeaders(rCode, contentLen);
     }
 
+    @Override
+    public void sendFile(int rCode, FileChannel channel, long position, long count)
+            throws IOException {
+        impl.sendFile(rCode, channel, position, count);
+    }
+
+    @Override
+    public void sendResponse(int rCode, ByteBuffer body) throws IOException {
+        impl.sendResponse(rCode, body);
+    }
+
     @Override
     public InetSocketAddress getRemoteAddress() {
         return impl.getRemoteAddress();
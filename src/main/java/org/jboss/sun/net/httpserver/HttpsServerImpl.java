@@ -25,6 +25,7 @@
 
 package org.jboss.sun.net.httpserver;
 
+import org.jboss.com.sun.net.httpserver.HandshakeStatistics;
 import org.jboss.com.sun.net.httpserver.HttpContext;
 import org.jboss.com.sun.net.httpserver.HttpHandler;
 import org.jboss.com.sun.net.httpserver.HttpsConfigurator;
@@ -66,6 +67,11 @@ public class HttpsServerImpl extends HttpsServer {
         return server.getHttpsConfigurator();
     }
 
+    @Override
+    public HandshakeStatistics getHandshakeStatistics() {
+        return server.getHandshakeStatistics();
+    }
+
     @Override
     public void bind(InetSocketAddress addr, int backlog) throws IOException {
         server.bind(addr, backlog);
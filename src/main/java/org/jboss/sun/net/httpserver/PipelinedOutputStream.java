@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2005, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.sun.net.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+
+/**
+ * the raw output stream of one of several pipelined requests which are
+ * handled concurrently. The streams of a batch are linked in request
+ * order, and only the first one whose response is not complete writes
+ * to the connection. The ones behind it buffer their responses, which
+ * are written out in order when the responses ahead of them complete.
+ * At most MAX_BUFFERED bytes are buffered for each response, a writer
+ * with more waits until its stream writes to the connection.
+ */
+class PipelinedOutputStream extends OutputStream {
+
+    static final int MAX_BUFFERED = 64 * 1024;
+
+    private final ServerImpl server;
+    private final HttpConnection connection;
+    private final OutputStream out;
+    /* set before any of the exchanges is started */
+    private PipelinedOutputStream next;
+    /* the response so far, null once the stream writes to the connection */
+    private ByteArrayOutputStream buffer;
+    private boolean finished;
+    private boolean close;
+    /* the connection was closed before this stream got to write to it */
+    private boolean discarded;
+
+    PipelinedOutputStream(ServerImpl server, HttpConnection connection, PipelinedOutputStream previous) {
+        this.server = server;
+        this.connection = connection;
+        this.out = connection.getRawOutputStream();
+        if (previous != null) {
+            previous.next = this;
+            buffer = new ByteArrayOutputStream();
+        }
+    }
+
+    public synchronized void write(int b) throws IOException {
+        await(1);
+        if (buffer != null) {
+            buffer.write(b);
+        } else {
+            out.write(b);
+        }
+    }
+
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        await(len);
+        if (buffer != null) {
+            buffer.write(b, off, len);
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * waits while len more bytes would not fit in the buffer, until the
+     * stream writes to the connection
+     */
+    private void await(int len) throws IOException {
+        while (buffer != null && buffer.size() + len > MAX_BUFFERED && !discarded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+        if (discarded) {
+            throw new IOException("connection closed");
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (buffer == null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * called when the response is complete. If the responses ahead of it
+     * are written, the completed responses behind it are written too, and
+     * the first incomplete one goes on writing to the connection itself.
+     *
+     * @param close if the connection is to be closed after this response
+     */
+    void finished(boolean close) {
+        synchronized (this) {
+            finished = true;
+            this.close = close;
+            if (buffer != null) {
+                return;
+            }
+        }
+        PipelinedOutputStream s = this;
+        try {
+            while (!close && (s = s.next) != null) {
+                synchronized (s) {
+                    s.buffer.writeTo(out);
+                    s.buffer = null;
+                    s.notifyAll();
+                    if (!s.finished) {
+                        return;
+                    }
+                    close = s.close;
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            server.getLogger().log(Level.FINER, "PipelinedOutputStream", e);
+            close = true;
+        }
+        if (close) {
+            server.closeConnection(connection);
+        }
+    }
+
+    /**
+     * called when the connection is closed, for the first stream of the
+     * batch. Writers of this and the following streams which wait for
+     * room fail instead of waiting for ever.
+     */
+    void discard() {
+        for (PipelinedOutputStream s = this; s != null; s = s.next) {
+            synchronized (s) {
+                s.discarded = true;
+                s.notifyAll();
+            }
+        }
+    }
+}
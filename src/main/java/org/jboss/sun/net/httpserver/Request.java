@@ -28,10 +28,12 @@ package org.jboss.sun.net.httpserver;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 
 import org.jboss.com.sun.net.httpserver.Headers;
 
@@ -39,33 +41,20 @@ import org.jboss.com.sun.net.httpserver.Headers;
  */
 class Request {
 
-    final static int BUF_LEN = 2048;
     final static byte CR = 13;
     final static byte LF = 10;
 
     private String startLine;
-    private SocketChannel chan;
-    private InputStream is;
+    private ByteBufferInputStream is;
     private OutputStream os;
+    private RequestHeaders hdrs;
 
-    Request (InputStream rawInputStream, OutputStream rawout) throws IOException {
-        this.chan = chan;
+    Request (ByteBufferInputStream rawInputStream, OutputStream rawout) throws IOException {
         is = rawInputStream;
         os = rawout;
-        do {
-            startLine = readLine();
-            if (startLine == null) {
-                return;
-            }
-            /* skip blank lines */
-        } while (startLine == null ? false : startLine.equals (""));
+        readHead();
     }
 
-
-    char[] buf = new char [BUF_LEN];
-    int pos;
-    StringBuffer lineBuf;
-
     public InputStream inputStream () {
         return is;
     }
@@ -75,195 +64,281 @@ class Request {
     }
 
     /**
-     * read a line from the stream returning as a String.
-     * Not used for reading headers.
+     * returns the request line (first line of a request)
      */
+    public String requestLine () {
+        return startLine;
+    }
 
-    public String readLine () throws IOException {
-        boolean gotCR = false, gotLF = false;
-        pos = 0; lineBuf = new StringBuffer();
-        while (!gotLF) {
-            int c = is.read();
-            if (c == -1) {
-                return null;
-            }
-            if (gotCR) {
-                if (c == LF) {
-                    gotLF = true;
-                } else {
-                    gotCR = false;
-                    consume (CR);
-                    consume (c);
-                }
-            } else {
-                if (c == CR) {
-                    gotCR = true;
-                } else {
-                    consume (c);
+    Headers headers () {
+        return hdrs;
+    }
+
+    void setOutputStream (OutputStream os) {
+        this.os = os;
+    }
+
+    /**
+     * returns true if the request which follows this one on the
+     * connection can be read before this one is handled, ie. this
+     * request has no body and the connection stays open after it
+     */
+    boolean canPipeline () {
+        if (!startLine.regionMatches (true, startLine.length() - 9, " HTTP/1.1", 0, 9)) {
+            return false;
+        }
+        String s = hdrs.getFirst ("Connection");
+        if (s != null && s.equalsIgnoreCase ("close")) {
+            return false;
+        }
+        if (hdrs.getFirst ("Transfer-encoding") != null || hdrs.getFirst ("Expect") != null) {
+            return false;
+        }
+        s = hdrs.getFirst ("Content-Length");
+        return s == null || s.trim().equals ("0");
+    }
+
+    /**
+     * reads the request line and headers. The end of the head is searched
+     * for in the stream's buffer, then the head is copied out in one piece
+     * and split into lines by offsets. Anything after the head stays
+     * buffered in the stream for the request body, or the next request.
+     */
+    private void readHead () throws IOException {
+        int end;
+        while ((end = endOfHead(is)) == -1) {
+            if (is.fill() == -1) {
+                /* the stream ended, use what there is if the request line is complete */
+                ByteBuffer buf = is.buffer();
+                if (indexOf(buf, buf.position(), buf.limit(), LF) == -1) {
+                    return;
                 }
+                end = buf.limit();
+                break;
             }
         }
-        lineBuf.append (buf, 0, pos);
-        return new String (lineBuf);
+        ByteBuffer buf = is.buffer();
+        long max = ServerConfig.getMaxReqHeaderSize();
+        if (end - buf.position() > max) {
+            throw new IOException("Maximum size of request header ("
+                    + "sun.net.httpserver.maxReqHeaderSize) exceeded, " + max + ".");
+        }
+        byte[] head = new byte[end - buf.position()];
+        buf.get(head);
+        parseHead(head);
     }
 
-    private void consume (int c) {
-        if (pos == BUF_LEN) {
-            lineBuf.append (buf);
-            pos = 0;
+    /**
+     * searches the bytes buffered in the stream for the end of a request
+     * head, without reading from the connection. Blank lines before the
+     * head are consumed. The search resumes where the previous call for
+     * the same stream stopped. A request line which cannot be valid ends
+     * the head by itself, so that it is rejected without waiting for
+     * the rest.
+     *
+     * @return the index in the buffer just after the head, or -1 if more
+     *         bytes are needed
+     */
+    static int endOfHead (ByteBufferInputStream is) throws IOException {
+        ByteBuffer buf = is.buffer();
+        int pos = buf.position();
+        int lim = buf.limit();
+        if (is.scanned == 0) {
+            /* skip blank lines */
+            while (pos < lim && (buf.get(pos) == CR || buf.get(pos) == LF)) {
+                pos++;
+            }
+            buf.position(pos);
         }
-        buf[pos++] = (char)c;
+        int end = endOfHead(buf, pos, pos + is.scanned, lim);
+        if (end == -1) {
+            int eol = indexOf(buf, pos, lim, LF);
+            if (eol != -1 && !isRequestLine(buf, pos, eol)) {
+                end = eol + 1;
+            }
+        }
+        if (end != -1) {
+            is.scanned = 0;
+            return end;
+        }
+        is.scanned = lim - pos;
+        long max = ServerConfig.getMaxReqHeaderSize();
+        if (is.scanned >= max) {
+            throw new IOException("Maximum size of request header ("
+                    + "sun.net.httpserver.maxReqHeaderSize) exceeded, " + max + ".");
+        }
+        return -1;
     }
 
     /**
-     * returns the request line (first line of a request)
+     * returns false if the line between start and the LF at eol lacks
+     * the spaces before and after the target, so that the exchange
+     * rejects it anyway. Nothing else is checked here, a line is treated
+     * the same whether the rest of the head arrives with it or not
      */
-    public String requestLine () {
-        return startLine;
+    private static boolean isRequestLine (ByteBuffer buf, int start, int eol) {
+        int end = eol > start && buf.get(eol - 1) == CR ? eol - 1 : eol;
+        int sp1 = indexOf(buf, start, end, (byte) ' ');
+        return sp1 != -1 && indexOf(buf, sp1 + 1, end, (byte) ' ') != -1;
     }
 
-    Headers hdrs = null;
-
-    Headers headers () throws IOException {
-        if (hdrs != null) {
-            return hdrs;
+    private void parseHead (byte[] head) throws IOException {
+        int n = head.length;
+        int eol = indexOf(head, 0, n, LF);
+        int next = eol == -1 ? n : eol + 1;
+        startLine = new String(head, 0, lineEnd(head, 0, eol == -1 ? n : eol), StandardCharsets.ISO_8859_1);
+        hdrs = new RequestHeaders(head);
+        long maxHeaders = ServerConfig.getMaxReqHeaders();
+        while (next < n) {
+            int start = next;
+            eol = indexOf(head, start, n, LF);
+            next = eol == -1 ? n : eol + 1;
+            int end = lineEnd(head, start, eol == -1 ? n : eol);
+            if (end == start) {
+                /* blank line */
+                break;
+            }
+            /* lines starting with white space continue the header */
+            boolean folded = false;
+            while (next < n && (head[next] == ' ' || head[next] == '\t')) {
+                folded = true;
+                eol = indexOf(head, next, n, LF);
+                end = lineEnd(head, next, eol == -1 ? n : eol);
+                next = eol == -1 ? n : eol + 1;
+            }
+            if (hdrs.lineCount() >= maxHeaders) {
+                throw new IOException("Maximum number of request headers (" + "sun.net.httpserver.maxReqHeaders) exceeded, "
+                        + maxHeaders + ".");
+            }
+            hdrs.addLine(start, end, folded);
         }
-        hdrs = new Headers();
-
-        char s[] = new char[10];
-        int len = 0;
+    }
 
-        int firstc = is.read();
+    /* end of the line between start and the LF at eol, without the CR */
+    private static int lineEnd (byte[] head, int start, int eol) {
+        return eol > start && head[eol - 1] == CR ? eol - 1 : eol;
+    }
 
-        // check for empty headers
-        if (firstc == CR || firstc == LF) {
-            int c = is.read();
-            if (c == CR || c == LF) {
-                return hdrs;
+    /**
+     * returns the index just after the blank line ending the head which
+     * starts at start, searching for line feeds from from, or -1
+     */
+    private static int endOfHead (ByteBuffer buf, int start, int from, int to) {
+        int i = from;
+        while ((i = indexOf(buf, i, to, LF)) != -1) {
+            if (i > start && buf.get(i - 1) == LF
+                    || i > start + 1 && buf.get(i - 1) == CR && buf.get(i - 2) == LF) {
+                return i + 1;
             }
-            s[0] = (char)firstc;
-            len = 1;
-            firstc = c;
-        }
-
-        while (firstc != LF && firstc != CR && firstc >= 0) {
-            int keyend = -1;
-            int c;
-            boolean inKey = firstc > ' ';
-            s[len++] = (char) firstc;
-    parseloop:{
-                while ((c = is.read()) >= 0) {
-                    switch (c) {
-                      case ':':
-                        if (inKey && len > 0)
-                            keyend = len;
-                        inKey = false;
-                        break;
-                      case '\t':
-                        c = ' ';
-                      case ' ':
-                        inKey = false;
-                        break;
-                      case CR:
-                      case LF:
-                        firstc = is.read();
-                        if (c == CR && firstc == LF) {
-                            firstc = is.read();
-                            if (firstc == CR)
-                                firstc = is.read();
-                        }
-                        if (firstc == LF || firstc == CR || firstc > ' ')
-                            break parseloop;
-                        /* continuation */
-                        c = ' ';
-                        break;
-                    }
-                    if (s.length >= ServerConfig.getMaxReqHeaderSize()) {
-                        throw new IOException("Maximum size of request header ("
-                                + "sun.net.httpserver.maxReqHeaderSize) exceeded, " + ServerConfig.getMaxReqHeaderSize() + ".");
-                    }
-                    if (len >= s.length) {
-                        char ns[] = new char[s.length * 2];
-                        System.arraycopy(s, 0, ns, 0, len);
-                        s = ns;
-                    }
-                    s[len++] = (char) c;
-                }
-                firstc = -1;
+            i++;
+        }
+        return -1;
+    }
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+    /**
+     * returns the index of the first b between from and to, or -1.
+     * Eight bytes are compared at a time: after xor with the pattern,
+     * the bytes equal to b are zero and get their high bit set below.
+     */
+    static int indexOf (ByteBuffer buf, int from, int to, byte b) {
+        long pattern = (b & 0xFFL) * ONES;
+        boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long x = buf.getLong(i) ^ pattern;
+            long t = ~(((x & LOW7) + LOW7) | x | LOW7);
+            if (t != 0) {
+                return i + ((bigEndian ? Long.numberOfLeadingZeros(t) : Long.numberOfTrailingZeros(t)) >>> 3);
             }
-            while (len > 0 && s[len - 1] <= ' ')
-                len--;
-            String k;
-            if (keyend <= 0) {
-                k = null;
-                keyend = 0;
-            } else {
-                k = String.copyValueOf(s, 0, keyend);
-                if (keyend < len && s[keyend] == ':')
-                    keyend++;
-                while (keyend < len && s[keyend] <= ' ')
-                    keyend++;
+        }
+        for (; i < to; i++) {
+            if (buf.get(i) == b) {
+                return i;
             }
-            String v;
-            if (keyend >= len)
-                v = new String();
-            else
-                v = String.copyValueOf(s, keyend, len - keyend);
+        }
+        return -1;
+    }
 
-            if (hdrs.size() >= ServerConfig.getMaxReqHeaders()) {
-                throw new IOException("Maximum number of request headers (" + "sun.net.httpserver.maxReqHeaders) exceeded, "
-                        + ServerConfig.getMaxReqHeaders() + ".");
+    static int indexOf (byte[] a, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (a[i] == b) {
+                return i;
             }
-
-            hdrs.add(k, v);
-            len = 0;
         }
-        return hdrs;
+        return -1;
     }
 
     /**
-     * Implements blocking reading semantics on top of a non-blocking channel
+     * Implements blocking reading semantics on top of a non-blocking channel.
+     * Bytes are read into a direct buffer leased from the server's pool,
+     * which the request head is parsed from. The buffer is released while
+     * the connection is idle.
      */
 
-    static class ReadStream extends InputStream {
+    static class ReadStream extends ByteBufferInputStream {
         SocketChannel channel;
+        HttpConnection connection;
         ByteBuffer chanbuf;
-        byte[] one;
         private boolean closed = false, eof = false;
-        ByteBuffer markBuf; /* reads may be satisifed from this buffer */
-        boolean marked;
-        boolean reset;
-        int readlimit;
-        static long readTimeout;
         ServerImpl server;
         final static int BUFSIZE = 8 * 1024;
 
-        public ReadStream (ServerImpl server, SocketChannel chan) throws IOException {
-            this.channel = chan;
+        /* the buffer of a stream which holds none */
+        private final static ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+        public ReadStream (ServerImpl server, HttpConnection connection) throws IOException {
+            this.channel = connection.getChannel();
+            this.connection = connection;
             this.server = server;
-            chanbuf = ByteBuffer.allocate(BUFSIZE);
-            chanbuf.clear();
-            one = new byte[1];
-            closed = marked = reset = false;
+            chanbuf = EMPTY;
         }
 
-        public synchronized int read (byte[] b) throws IOException {
-            return read (b, 0, b.length);
+        /**
+         * gives the buffer back to the pool if it holds no bytes.
+         * Only called while no thread reads from the stream
+         */
+        void release () {
+            if (chanbuf != EMPTY && !chanbuf.hasRemaining()) {
+                server.bufferPool.release (chanbuf);
+                chanbuf = EMPTY;
+                scanned = 0;
+            }
         }
 
-        public synchronized int read () throws IOException {
-            int result = read (one, 0, 1);
-            if (result == 1) {
-                return one[0] & 0xFF;
-            } else {
-                return -1;
+        /**
+         * gives the buffer back to the pool whatever it holds, once the
+         * connection is closed
+         */
+        void discard () {
+            if (chanbuf != EMPTY) {
+                server.bufferPool.release (chanbuf);
+                chanbuf = EMPTY;
+                scanned = 0;
             }
         }
 
-        public synchronized int read (byte[] b, int off, int srclen) throws IOException {
+        ByteBuffer buffer () {
+            return chanbuf;
+        }
+
+        int fill () throws IOException {
+            return fill (true);
+        }
 
-            int canreturn, willreturn;
+        /**
+         * reads whatever the channel has available without blocking,
+         * for the dispatcher thread
+         *
+         * @return the number of bytes added, possibly 0, or -1 at end of stream
+         */
+        int fillNow () throws IOException {
+            return fill (false);
+        }
 
+        private int fill (boolean block) throws IOException {
             if (closed)
                 throw new IOException ("Stream closed");
 
@@ -271,61 +346,36 @@ class Request {
                 return -1;
             }
 
-            //DISABLED assert channel.isBlocking();
-
-            if (off < 0 || srclen < 0|| srclen > (b.length-off)) {
-                throw new IndexOutOfBoundsException ();
-            }
-
-            if (reset) { /* satisfy from markBuf */
-                canreturn = markBuf.remaining ();
-                willreturn = canreturn>srclen ? srclen : canreturn;
-                markBuf.get(b, off, willreturn);
-                if (canreturn == willreturn) {
-                    reset = false;
-                }
-            } else { /* satisfy from channel */
-                chanbuf.clear ();
-                if (srclen <  BUFSIZE) {
-                    chanbuf.limit (srclen);
+            if (!chanbuf.hasRemaining()) {
+                if (chanbuf.capacity() != BUFSIZE) {
+                    /* no buffer yet, or one enlarged for a big request head */
+                    if (chanbuf != EMPTY) {
+                        server.bufferPool.release (chanbuf);
+                    }
+                    chanbuf = server.bufferPool.lease (BUFSIZE);
+                } else {
+                    chanbuf.clear();
                 }
-                do {
-                    willreturn = channel.read (chanbuf);
-                } while (willreturn == 0);
-                if (willreturn == -1) {
-                    eof = true;
-                    return -1;
+            } else if (chanbuf.position() == 0 && chanbuf.limit() == chanbuf.capacity()) {
+                ByteBuffer b = server.bufferPool.lease (chanbuf.capacity() * 2);
+                b.put(chanbuf);
+                server.bufferPool.release (chanbuf);
+                chanbuf = b;
+            } else {
+                chanbuf.compact();
+            }
+            int n;
+            try {
+                while ((n = channel.read (chanbuf)) == 0 && block) {
+                    connection.awaitReady (SelectionKey.OP_READ);
                 }
+            } finally {
                 chanbuf.flip();
-                chanbuf.get(b, off, willreturn);
-
-                if (marked) { /* copy into markBuf */
-                    try {
-                        markBuf.put (b, off, willreturn);
-                    } catch (BufferOverflowException e) {
-                        marked = false;
-                    }
-                }
             }
-            return willreturn;
-        }
-
-        public boolean markSupported () {
-            return true;
-        }
-
-        /* Does not query the OS socket */
-        public synchronized int available () throws IOException {
-            if (closed)
-                throw new IOException ("Stream is closed");
-
-            if (eof)
-                return -1;
-
-            if (reset)
-                return markBuf.remaining();
-
-            return chanbuf.remaining();
+            if (n == -1) {
+                eof = true;
+            }
+            return n;
         }
 
         public void close () throws IOException {
@@ -335,42 +385,57 @@ class Request {
             channel.close();
             closed = true;
         }
-
-        public synchronized void mark (int readlimit) {
-            if (closed)
-                return;
-            this.readlimit = readlimit;
-            markBuf = ByteBuffer.allocate (readlimit);
-            marked = true;
-            reset = false;
-        }
-
-        public synchronized void reset () throws IOException {
-            if (closed )
-                return;
-            if (!marked)
-                throw new IOException ("Stream not marked");
-            marked = false;
-            reset = true;
-            markBuf.flip ();
-        }
     }
 
+    /**
+     * Implements blocking writing semantics on top of a non-blocking channel.
+     * Bytes are copied into a direct buffer leased from the server's pool,
+     * which is released while the connection is idle.
+     */
     static class WriteStream extends java.io.OutputStream {
+        /* most bytes held back while corked */
+        final static int CORK_SIZE = 4096;
+        final static int BUFSIZE = 16 * 1024;
+
         SocketChannel channel;
+        HttpConnection connection;
         ByteBuffer buf;
         SelectionKey key;
         boolean closed;
         byte[] one;
         ServerImpl server;
+        /* writes are collected in buf until flush(), see cork() */
+        boolean corked;
+        final ByteBuffer[] gather = new ByteBuffer[2];
 
-        public WriteStream (ServerImpl server, SocketChannel channel) throws IOException {
-            this.channel = channel;
+        public WriteStream (ServerImpl server, HttpConnection connection) throws IOException {
+            this.channel = connection.getChannel();
+            this.connection = connection;
             this.server = server;
-            //DISABLED assert channel.isBlocking();
             closed = false;
             one = new byte [1];
-            buf = ByteBuffer.allocate (4096);
+        }
+
+        /**
+         * gives the buffer back to the pool. The next write leases one again
+         */
+        public synchronized void release () {
+            if (buf != null && !corked) {
+                server.bufferPool.release (buf);
+                buf = null;
+            }
+        }
+
+        /**
+         * gives the buffer back to the pool, even with bytes held back,
+         * once the connection is closed
+         */
+        synchronized void discard () {
+            if (buf != null) {
+                server.bufferPool.release (buf);
+                buf = null;
+                corked = false;
+            }
         }
 
         public synchronized void write (int b) throws IOException {
@@ -382,24 +447,125 @@ class Request {
             write (b, 0, b.length);
         }
 
+        /**
+         * holds back the following writes, up to CORK_SIZE bytes, until
+         * flush() is called. The response head is written corked, so that
+         * it goes out with the start of the body in one gathering write.
+         */
+        public synchronized void cork () {
+            if (!corked) {
+                corked = true;
+                if (buf == null) {
+                    buf = server.bufferPool.lease (BUFSIZE);
+                }
+                buf.clear();
+            }
+        }
+
         public synchronized void write (byte[] b, int off, int len) throws IOException {
-            int l = len;
             if (closed)
                 throw new IOException ("stream is closed");
 
-            int cap = buf.capacity();
-            if (cap < len) {
-                int diff = len - cap;
-                buf = ByteBuffer.allocate (2*(cap+diff));
-            }
-            buf.clear();
-            buf.put (b, off, len);
-            buf.flip ();
-            int n;
-            while ((n = channel.write (buf)) < l) {
-                l -= n;
-                if (l == 0)
+            if (corked) {
+                if (buf.position() + len <= CORK_SIZE) {
+                    buf.put (b, off, len);
                     return;
+                }
+                /* the held bytes go out with the first of these */
+                corked = false;
+            } else {
+                if (buf == null) {
+                    buf = server.bufferPool.lease (BUFSIZE);
+                }
+                buf.clear();
+            }
+            /* copied through the direct buffer, which saves the channel
+             * copying them into a temporary one of its own */
+            while (len > 0) {
+                int n = Math.min (len, buf.remaining());
+                buf.put (b, off, n);
+                off += n;
+                len -= n;
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    if (channel.write (buf) == 0) {
+                        connection.awaitReady (SelectionKey.OP_WRITE);
+                    }
+                }
+                buf.clear();
+            }
+        }
+
+        /**
+         * writes the remaining bytes of src without copying them, unless
+         * src is a heap buffer. Bytes held back are sent with them in one
+         * gathering write.
+         */
+        public synchronized void write (ByteBuffer src) throws IOException {
+            if (closed)
+                throw new IOException ("stream is closed");
+            if (!src.isDirect() && src.hasArray()) {
+                write (src.array(), src.arrayOffset() + src.position(), src.remaining());
+                src.position (src.limit());
+                return;
+            }
+            if (corked) {
+                corked = false;
+                buf.flip();
+                gather[0] = buf;
+                gather[1] = src;
+                try {
+                    /* src may be empty, the held bytes are sent anyway */
+                    while (buf.hasRemaining() || src.hasRemaining()) {
+                        if (channel.write (gather) == 0) {
+                            connection.awaitReady (SelectionKey.OP_WRITE);
+                        }
+                    }
+                } finally {
+                    gather[1] = null;
+                }
+                return;
+            }
+            while (src.hasRemaining()) {
+                if (channel.write (src) == 0) {
+                    connection.awaitReady (SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        /**
+         * sends count bytes of the file from position, without copying them
+         * when the platform supports it. Anything held back is sent first.
+         */
+        public synchronized void transferFrom (FileChannel fc, long position, long count) throws IOException {
+            flush();
+            if (closed)
+                throw new IOException ("stream is closed");
+            while (count > 0) {
+                long n = fc.transferTo (position, count, channel);
+                if (n == 0) {
+                    if (position >= fc.size()) {
+                        throw new IOException ("unexpected end of file");
+                    }
+                    connection.awaitReady (SelectionKey.OP_WRITE);
+                    continue;
+                }
+                position += n;
+                count -= n;
+            }
+        }
+
+        public synchronized void flush () throws IOException {
+            if (!corked)
+                return;
+            corked = false;
+            if (closed)
+                throw new IOException ("stream is closed");
+            buf.flip();
+            while (buf.hasRemaining()) {
+                if (channel.write (buf) == 0) {
+                    connection.awaitReady (SelectionKey.OP_WRITE);
+                }
             }
         }
 
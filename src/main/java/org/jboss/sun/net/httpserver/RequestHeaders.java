@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2005, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.sun.net.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.com.sun.net.httpserver.Headers;
+
+/**
+ * the headers of a request, kept as offsets into the bytes of the request
+ * head. Names and values only become Strings when they are asked for.
+ * getFirst() looks at the header lines directly; any other access
+ * converts all of them into the map of the superclass, once.
+ */
+class RequestHeaders extends Headers {
+
+    private final byte[] head;
+    /* per header: name start, name end (-1 if there is no name), value start, value end */
+    private int[] lines = new int[4 * 16];
+    /* set for headers whose value contains folded lines or tabs */
+    private boolean[] folded = new boolean[16];
+    private int count;
+    private boolean materialized;
+
+    RequestHeaders(byte[] head) {
+        this.head = head;
+    }
+
+    /**
+     * adds the header line between start and end, which may include
+     * continuation lines if folded is set
+     */
+    void addLine(int start, int end, boolean folded) {
+        int nameEnd = -1;
+        if ((head[start] & 0xFF) > ' ') {
+            for (int i = start + 1; i < end; i++) {
+                byte b = head[i];
+                if (b == ':') {
+                    nameEnd = i;
+                    break;
+                }
+                if (b == ' ' || b == '\t') {
+                    break;
+                }
+            }
+        }
+        int vs = start;
+        if (nameEnd != -1) {
+            vs = nameEnd + 1;
+            while (vs < end && (head[vs] & 0xFF) <= ' ') {
+                vs++;
+            }
+        }
+        int ve = end;
+        while (ve > vs && (head[ve - 1] & 0xFF) <= ' ') {
+            ve--;
+        }
+        if (!folded) {
+            for (int i = vs; i < ve; i++) {
+                if (head[i] == '\t') {
+                    folded = true;
+                    break;
+                }
+            }
+        }
+        if (count == this.folded.length) {
+            lines = Arrays.copyOf(lines, lines.length * 2);
+            this.folded = Arrays.copyOf(this.folded, this.folded.length * 2);
+        }
+        int j = 4 * count;
+        lines[j] = start;
+        lines[j + 1] = nameEnd;
+        lines[j + 2] = vs;
+        lines[j + 3] = ve;
+        this.folded[count++] = folded;
+    }
+
+    /**
+     * number of header lines in the request
+     */
+    int lineCount() {
+        return count;
+    }
+
+    private String name(int i) {
+        int ns = lines[4 * i], ne = lines[4 * i + 1];
+        return ne == -1 ? null : new String(head, ns, ne - ns, StandardCharsets.ISO_8859_1);
+    }
+
+    private String value(int i) {
+        int vs = lines[4 * i + 2], ve = lines[4 * i + 3];
+        if (!folded[i]) {
+            return new String(head, vs, ve - vs, StandardCharsets.ISO_8859_1);
+        }
+        /* each line break and the white space starting the next line
+         * become a single space, as do tabs */
+        StringBuilder sb = new StringBuilder(ve - vs);
+        for (int j = vs; j < ve; j++) {
+            byte b = head[j];
+            if (b == Request.CR) {
+                continue;
+            }
+            if (b == Request.LF) {
+                sb.append(' ');
+                j++;
+                continue;
+            }
+            sb.append(b == '\t' ? ' ' : (char) (b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    private boolean nameEquals(int i, String key) {
+        int ns = lines[4 * i], ne = lines[4 * i + 1];
+        if (ne == -1 || ne - ns != key.length()) {
+            return false;
+        }
+        for (int k = 0; k < ne - ns; k++) {
+            int a = head[ns + k] & 0xFF;
+            int c = key.charAt(k);
+            if (a != c) {
+                if (a >= 'A' && a <= 'Z') {
+                    a += 'a' - 'A';
+                }
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (a != c) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void materialize() {
+        if (materialized) {
+            return;
+        }
+        materialized = true;
+        for (int i = 0; i < count; i++) {
+            super.add(name(i), value(i));
+        }
+    }
+
+    @Override
+    public String getFirst(String key) {
+        if (materialized || key == null) {
+            materialize();
+            return super.getFirst(key);
+        }
+        for (int i = 0; i < count; i++) {
+            if (nameEquals(i, key)) {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        materialize();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return materialized ? super.isEmpty() : count == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        materialize();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        materialize();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        materialize();
+        return super.get(key);
+    }
+
+    @Override
+    public List<String> put(String key, List<String> value) {
+        materialize();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void add(String key, String value) {
+        materialize();
+        super.add(key, value);
+    }
+
+    @Override
+    public void set(String key, String value) {
+        materialize();
+        super.set(key, value);
+    }
+
+    @Override
+    public List<String> remove(Object key) {
+        materialize();
+        return super.remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends List<String>> t) {
+        materialize();
+        super.putAll(t);
+    }
+
+    @Override
+    public void clear() {
+        materialized = true;
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        materialize();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<List<String>> values() {
+        materialize();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<String>>> entrySet() {
+        materialize();
+        return super.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        materialize();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        materialize();
+        return super.hashCode();
+    }
+}
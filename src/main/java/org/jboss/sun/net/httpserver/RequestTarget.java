@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2005, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.sun.net.httpserver;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * the request-target of a request line, recorded as offsets into the line.
+ * <p>
+ * A target in origin form ("/path?query") is checked in a single scan
+ * against the characters java.net.URI accepts without further parsing.
+ * Such a target is routed on the raw path, which is the decoded path
+ * unless it has escapes, and the URI is only created when it is asked
+ * for. Any other target is parsed into a URI straight away, so that it
+ * is rejected exactly as before.
+ */
+class RequestTarget {
+
+    /* characters accepted in the path and query of a simple target */
+    private static final boolean[] SIMPLE = new boolean[128];
+
+    static {
+        String s = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"
+                + "-_.!~*'():@&=+$,;/?";
+        for (int i = 0; i < s.length(); i++) {
+            SIMPLE[s.charAt(i)] = true;
+        }
+    }
+
+    private final String line;
+    private final int start, end;
+    /* end of the path, ie. the position of the '?' or end */
+    private int pathEnd;
+    /* if the path contains escaped octets, which must be decoded */
+    private boolean escaped;
+    private URI uri;
+
+    /**
+     * @param line the request line
+     * @param start start of the target in line
+     * @param end end of the target in line
+     * @throws URISyntaxException if the target is not a valid URI
+     */
+    RequestTarget(String line, int start, int end) throws URISyntaxException {
+        this.line = line;
+        this.start = start;
+        this.end = end;
+        if (!scan()) {
+            uri = new URI(line.substring(start, end));
+        }
+    }
+
+    /**
+     * returns true if the target is in origin form and made of
+     * simple characters only
+     */
+    private boolean scan() {
+        if (end == start || line.charAt(start) != '/'
+                || (end - start > 1 && line.charAt(start + 1) == '/')) {
+            /* "//x" would be an authority */
+            return false;
+        }
+        pathEnd = end;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= end || !isHex(line.charAt(i + 1)) || !isHex(line.charAt(i + 2))) {
+                    return false;
+                }
+                if (pathEnd == end) {
+                    escaped = true;
+                }
+                i += 2;
+            } else if (c >= 128 || !SIMPLE[c]) {
+                return false;
+            } else if (c == '?' && pathEnd == end) {
+                pathEnd = i;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * finds the context for this target, without creating the URI
+     * unless the path must be decoded
+     */
+    HttpContextImpl findContext(ContextList contexts, String protocol) {
+        if (uri == null && !escaped) {
+            return contexts.findContext(protocol, line, start, pathEnd);
+        }
+        String path = uri().getPath();
+        return contexts.findContext(protocol, path, 0, path.length());
+    }
+
+    /**
+     * returns the decoded path, without creating the URI unless the
+     * path must be decoded
+     */
+    String path() {
+        if (uri == null && !escaped) {
+            return line.substring(start, pathEnd);
+        }
+        return uri().getPath();
+    }
+
+    URI uri() {
+        if (uri == null) {
+            try {
+                uri = new URI(line.substring(start, end));
+            } catch (URISyntaxException e) {
+                /* cannot happen, checked by scan() */
+                throw new IllegalStateException(e);
+            }
+        }
+        return uri;
+    }
+
+    @Override
+    public String toString() {
+        return line.substring(start, end);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2005, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.sun.net.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.jboss.com.sun.net.httpserver.Headers;
+
+/**
+ * encodes a response head into a byte array which is written to the
+ * connection in one piece. The status lines are encoded once for every
+ * code, and the value of the Date header once per second.
+ * <p>
+ * An instance is reused by the exchanges of a connection, see
+ * {@link HttpConnection#takeResponseHead()}.
+ */
+class ResponseHead {
+
+    /* "HTTP/1.1 nnn Reason\r\n" for the codes 100 to 599 */
+    private static final byte[][] STATUS_LINES = new byte[500][];
+
+    static {
+        for (int code = 100; code < 600; code++) {
+            STATUS_LINES[code - 100] = ascii("HTTP/1.1 " + code + Code.msg(code) + "\r\n");
+        }
+    }
+
+    /* for formatting the Date: header */
+    private static final String pattern = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    private static final TimeZone gmtTZ = TimeZone.getTimeZone("GMT");
+
+    /**
+     * the value of the Date header, for one second
+     */
+    private static final class CachedDate {
+        final long second;
+        final String value;
+        final byte[] bytes;
+
+        CachedDate(long second) {
+            DateFormat df = new SimpleDateFormat(pattern, Locale.US);
+            df.setTimeZone(gmtTZ);
+            this.second = second;
+            this.value = df.format(new Date(second * 1000));
+            this.bytes = ascii(value);
+        }
+    }
+
+    private static volatile CachedDate cachedDate = new CachedDate(System.currentTimeMillis() / 1000);
+
+    /* heads bigger than this are not kept for reuse */
+    private static final int MAX_RETAINED = 16 * 1024;
+
+    private byte[] buf = new byte[512];
+    private int count;
+
+    /**
+     * returns the current value of the Date header. The same String
+     * instance is returned during a second.
+     */
+    static String date() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate d = cachedDate;
+        if (d.second != second) {
+            /* racing threads format the same value */
+            d = new CachedDate(second);
+            cachedDate = d;
+        }
+        return d.value;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+    void statusLine(int code) {
+        if (code >= 100 && code < 600) {
+            append(STATUS_LINES[code - 100]);
+        } else {
+            append("HTTP/1.1 " + code + Code.msg(code) + "\r\n");
+        }
+    }
+
+    void header(String name, String value) {
+        append(name);
+        ensure(2);
+        buf[count++] = ':';
+        buf[count++] = ' ';
+        if (value != null) {
+            CachedDate d = cachedDate;
+            if (value == d.value) {
+                append(d.bytes);
+            } else {
+                append(value);
+            }
+        }
+        crlf();
+    }
+
+    /**
+     * adds a line for every value of every header, and the empty line
+     * ending the head. Headers with a null name are left out.
+     */
+    void headers(Headers map) {
+        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+            String key = entry.getKey();
+            if (key == null) {
+                continue;
+            }
+            List<String> values = entry.getValue();
+            if (values == null) {
+                header(key, null);
+                continue;
+            }
+            for (String val : values) {
+                header(key, val);
+            }
+        }
+        crlf();
+    }
+
+    void crlf() {
+        ensure(2);
+        buf[count++] = '\r';
+        buf[count++] = '\n';
+    }
+
+    /**
+     * appends s, one byte per char as the head is ISO-8859-1
+     */
+    void append(String s) {
+        int len = s.length();
+        ensure(len);
+        for (int i = 0; i < len; i++) {
+            buf[count + i] = (byte) s.charAt(i);
+        }
+        count += len;
+    }
+
+    private void append(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, count, b.length);
+        count += b.length;
+    }
+
+    private void ensure(int n) {
+        if (count + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+        }
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        os.write(buf, 0, count);
+    }
+
+    /**
+     * empties the head for reuse, returns false if it is too big to keep
+     */
+    boolean reset() {
+        count = 0;
+        return buf.length <= MAX_RETAINED;
+    }
+}
@@ -34,7 +34,11 @@ import javax.net.ssl.SSLEngineResult.Status;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -42,11 +46,25 @@ import java.util.concurrent.locks.ReentrantLock;
  * given a non-blocking SocketChannel, it produces
  * (blocking) streams which encrypt/decrypt the SSL content
  * and handle the SSL handshaking automatically.
+ * <p>
+ * Until a request head has been decrypted, the dispatcher drives the
+ * engine without blocking through InputStream.fillNow(), so that the
+ * handshake never holds on to a worker thread. The blocking paths are
+ * only used by the exchanges.
+ * <p>
+ * The buffers are leased from the server's pool when they are needed,
+ * and released while the connection is idle, unless they hold bytes.
  */
 class SSLStreams {
 
+    /* the buffer of a stream which holds none, and the source of empty wraps */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    /* the most plaintext a TLS record carries */
+    private static final int RECORD_SIZE = 16 * 1024;
+
     private SSLContext sslctx;
     private SocketChannel socketChannel;
+    private HttpConnection connection;
     private SSLEngine engine;
     private EngineWrapper wrapper;
     private OutputStream os;
@@ -58,10 +76,18 @@ class SSLStreams {
      */
     private Lock handshaking = new ReentrantLock();
 
-    SSLStreams(ServerImpl server, SSLContext sslCtx, SocketChannel socketChannel) {
+    /* set while the handshake executor runs the engine's delegated tasks */
+    private volatile boolean delegated;
+    /* System.nanoTime() of the first bytes of the handshake, 0 if none is in progress */
+    private long handshakeStart;
+    /* the same in ms since the epoch, to tell resumed sessions from new ones */
+    private long handshakeStartTime;
+
+    SSLStreams(ServerImpl server, SSLContext sslCtx, HttpConnection connection) {
         this.server = server;
         this.sslctx = sslCtx;
-        this.socketChannel = socketChannel;
+        this.connection = connection;
+        this.socketChannel = connection.getChannel();
         InetSocketAddress addr = (InetSocketAddress) socketChannel.socket().getRemoteSocketAddress();
         // This is the server side of the connection so we do not need to hint as to the clients address.
         engine = sslCtx.createSSLEngine();
@@ -140,9 +166,84 @@ class SSLStreams {
      * cleanup resources allocated inside this object
      */
     void close() throws IOException {
+        endHandshake(false);
         wrapper.close();
     }
 
+    /**
+     * gives the buffers which hold nothing back to the pool. Bytes
+     * received but not yet unwrapped or read are kept. Only called
+     * while no thread reads from or writes to the streams
+     */
+    void release() {
+        wrapper.release();
+        if (is != null) {
+            is.release();
+        }
+        if (os != null) {
+            os.release();
+        }
+    }
+
+    /**
+     * gives all the buffers back to the pool, whatever they hold.
+     * Only called once the connection is closed
+     */
+    void discard() {
+        wrapper.discard();
+        if (is != null) {
+            is.discard();
+        }
+        if (os != null) {
+            os.discard();
+        }
+    }
+
+    /**
+     * counts the end of the initial handshake, if it was in progress
+     */
+    private synchronized void endHandshake(boolean completed) {
+        if (handshakeStart != 0) {
+            if (completed) {
+                /* a session created before the handshake started has been resumed */
+                boolean resumed = engine.getSession().getCreationTime() < handshakeStartTime;
+                server.handshakeExecutor.handshakeCompleted(System.nanoTime() - handshakeStart, resumed);
+            } else {
+                server.handshakeExecutor.handshakeFailed();
+            }
+            handshakeStart = 0;
+        }
+    }
+
+    /**
+     * called by the handshake executor once the delegated tasks have run
+     */
+    void tasksDone() {
+        delegated = false;
+    }
+
+    /**
+     * hands the delegated tasks of the engine to the handshake executor
+     */
+    private void delegateTasks() throws IOException {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            tasks.add(task);
+        }
+        delegated = true;
+        try {
+            server.handshakeExecutor.execute(connection, tasks);
+        } catch (RejectedExecutionException e) {
+            delegated = false;
+            /* counted as rejected by the executor, not as failed on close */
+            synchronized (this) {
+                handshakeStart = 0;
+            }
+            throw new IOException("too many TLS handshakes in progress");
+        }
+    }
+
     /**
      * return the SSL InputStream
      */
@@ -223,7 +324,7 @@ class SSLStreams {
                 }
                 size = appBufSize;
             }
-            return ByteBuffer.allocate(size);
+            return server.bufferPool.lease(size);
         }
     }
 
@@ -232,6 +333,7 @@ class SSLStreams {
      * 1. creating a new buffer double the size of the old one
      * 2. putting the contents of the old buffer into the new one
      * 3. set xx_buf_size to the new size if it was smaller than new size
+     * 4. giving the old buffer back to the pool
      * <p>
      * flip is set to true if the old buffer needs to be flipped
      * before it is copied.
@@ -244,6 +346,7 @@ class SSLStreams {
                 b.flip();
             }
             n.put(b);
+            server.bufferPool.release(b);
             b = n;
         }
         return b;
@@ -269,19 +372,47 @@ class SSLStreams {
          * the number of bytes left in unwrapSrc after an unwrap()
          */
         int uRemaining;
+        /* set once wrapNow() or unwrapNow() have seen the initial handshake finish */
+        boolean handshaken;
 
         EngineWrapper(SocketChannel socketChannel, SSLEngine engine) {
             this.socketChannel = socketChannel;
             this.engine = engine;
             wrapLock = new Object();
             unwrapLock = new Object();
-            unwrapSrc = allocate(BufType.PACKET);
-            wrapDst = allocate(BufType.PACKET);
+            /* leased when needed */
         }
 
         void close() {
         }
 
+        /**
+         * gives back unwrapSrc unless it holds part of a record,
+         * and wrapDst unless it holds bytes not yet written
+         */
+        void release() {
+            if (unwrapSrc != null && uRemaining == 0) {
+                server.bufferPool.release(unwrapSrc);
+                unwrapSrc = null;
+            }
+            if (wrapDst != null && !wrapDst.hasRemaining()) {
+                server.bufferPool.release(wrapDst);
+                wrapDst = null;
+            }
+        }
+
+        void discard() {
+            if (unwrapSrc != null) {
+                server.bufferPool.release(unwrapSrc);
+                unwrapSrc = null;
+                uRemaining = 0;
+            }
+            if (wrapDst != null) {
+                server.bufferPool.release(wrapDst);
+                wrapDst = null;
+            }
+        }
+
         /**
          * try to wrap and send the data in src. Handles OVERFLOW.
          * Might block if there is an outbound blockage or if another
@@ -299,6 +430,9 @@ class SSLStreams {
             Status status;
             WrapperResult r = new WrapperResult();
             synchronized (wrapLock) {
+                if (wrapDst == null) {
+                    wrapDst = allocate(BufType.PACKET);
+                }
                 wrapDst.clear();
                 do {
                     r.result = engine.wrap(src, wrapDst);
@@ -316,7 +450,11 @@ class SSLStreams {
                     int l = wrapDst.remaining();
                     //DISABLED assert l == r.result.bytesProduced();
                     while (l > 0) {
-                        l -= socketChannel.write(wrapDst);
+                        int n = socketChannel.write(wrapDst);
+                        if (n == 0) {
+                            connection.awaitReady(SelectionKey.OP_WRITE);
+                        }
+                        l -= n;
                     }
                 }
             }
@@ -337,7 +475,10 @@ class SSLStreams {
                 throw new IOException("Engine is closed");
             }
             boolean needData;
-            if (uRemaining > 0) {
+            if (unwrapSrc == null) {
+                unwrapSrc = allocate(BufType.PACKET);
+                needData = true;
+            } else if (uRemaining > 0) {
                 unwrapSrc.compact();
                 unwrapSrc.flip();
                 needData = false;
@@ -349,9 +490,9 @@ class SSLStreams {
                 int x;
                 do {
                     if (needData) {
-                        do {
-                            x = socketChannel.read(unwrapSrc);
-                        } while (x == 0);
+                        while ((x = socketChannel.read(unwrapSrc)) == 0) {
+                            connection.awaitReady(SelectionKey.OP_READ);
+                        }
                         if (x == -1) {
                             throw new IOException("connection closed for reading");
                         }
@@ -386,6 +527,82 @@ class SSLStreams {
             uRemaining = unwrapSrc.remaining();
             return r;
         }
+
+        /**
+         * reads what the channel has available into unwrapSrc, after
+         * the bytes left there, without blocking
+         *
+         * @return the number of bytes read, or -1 at end of stream
+         */
+        int readNow() throws IOException {
+            synchronized (unwrapLock) {
+                if (unwrapSrc == null) {
+                    unwrapSrc = allocate(BufType.PACKET);
+                } else if (uRemaining == 0) {
+                    unwrapSrc.clear();
+                } else if (unwrapSrc.position() == 0 && unwrapSrc.limit() == unwrapSrc.capacity()) {
+                    /* a record bigger than the buffer */
+                    unwrapSrc = realloc(unwrapSrc, false, BufType.PACKET);
+                } else {
+                    unwrapSrc.compact();
+                }
+                int x = socketChannel.read(unwrapSrc);
+                unwrapSrc.flip();
+                uRemaining = unwrapSrc.remaining();
+                return x;
+            }
+        }
+
+        /**
+         * wraps the next handshake record and writes as much of it as
+         * the channel takes without blocking. The rest is written by
+         * flushNow()
+         *
+         * @return true if all of it was written
+         */
+        boolean wrapNow() throws IOException {
+            synchronized (wrapLock) {
+                SSLEngineResult r;
+                if (wrapDst == null) {
+                    wrapDst = allocate(BufType.PACKET);
+                }
+                wrapDst.clear();
+                do {
+                    r = engine.wrap(EMPTY, wrapDst);
+                    if (r.getStatus() == Status.BUFFER_OVERFLOW) {
+                        wrapDst = realloc(wrapDst, true, BufType.PACKET);
+                    }
+                } while (r.getStatus() == Status.BUFFER_OVERFLOW);
+                if (r.getStatus() == Status.CLOSED) {
+                    closed = true;
+                }
+                if (r.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+                    handshaken = true;
+                }
+                wrapDst.flip();
+                return flushNow();
+            }
+        }
+
+        /**
+         * writes what is left of the last record wrapped by wrapNow(),
+         * without blocking
+         *
+         * @return true if nothing is left
+         */
+        boolean flushNow() throws IOException {
+            synchronized (wrapLock) {
+                if (wrapDst == null) {
+                    return true;
+                }
+                while (wrapDst.hasRemaining()) {
+                    if (socketChannel.write(wrapDst) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
     }
 
     /**
@@ -413,7 +630,8 @@ class SSLStreams {
     }
 
     /**
-     * read data thru the engine into the given ByteBuffer. If the
+     * read data thru the engine into the given ByteBuffer, after any
+     * bytes already in it. If the
      * given buffer was not large enough, a new one is allocated
      * and returned. This call handles handshaking automatically.
      * Caller should check if engine has been closed.
@@ -421,8 +639,8 @@ class SSLStreams {
     public WrapperResult recvData(ByteBuffer dst) throws IOException {
         /* we wait until some user data arrives */
         WrapperResult wrapperResult = null;
-        //DISABLED assert dst.position() == 0;
-        while (dst.position() == 0) {
+        int start = dst.position();
+        while (dst.position() == start) {
             wrapperResult = wrapper.recvAndUnwrap(dst);
             dst = (wrapperResult.buf != dst) ? wrapperResult.buf : dst;
             Status status = wrapperResult.result.getStatus();
@@ -440,6 +658,94 @@ class SSLStreams {
         return wrapperResult;
     }
 
+    /**
+     * the non-blocking counterpart of recvData(), for the dispatcher.
+     * Unwraps what has arrived into the input stream's buffer, which
+     * must be ready for writing, and takes the handshake as far as it
+     * goes without waiting for the peer. Returns once application data
+     * has been unwrapped, when more bytes are needed from the peer, when
+     * a handshake record could not be written completely, or when the
+     * delegated tasks have been handed to the handshake executor.
+     *
+     * @return false at end of stream or once the session is closed
+     */
+    private boolean unwrapNow() throws IOException {
+        EngineWrapper w = wrapper;
+        if (delegated || !w.flushNow()) {
+            return true;
+        }
+        boolean needData = w.uRemaining == 0;
+        for (;;) {
+            if (w.handshaken) {
+                endHandshake(true);
+            }
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    delegateTasks();
+                    return true;
+                case NEED_WRAP:
+                    if (!w.wrapNow()) {
+                        return true;
+                    }
+                    if (w.closed) {
+                        return false;
+                    }
+                    continue;
+                default:
+                    break;
+            }
+            if (needData) {
+                int x = w.readNow();
+                if (x == -1) {
+                    return false;
+                }
+                if (x == 0) {
+                    return true;
+                }
+                if (!w.handshaken && handshakeStart == 0) {
+                    synchronized (this) {
+                        handshakeStart = System.nanoTime();
+                        handshakeStartTime = System.currentTimeMillis();
+                    }
+                    server.handshakeExecutor.handshakeStarted();
+                }
+            }
+            SSLEngineResult r;
+            try {
+                r = engine.unwrap(w.unwrapSrc, is.buf);
+            } catch (SSLException e) {
+                /* the alert goes out if the channel takes it at once */
+                try {
+                    w.wrapNow();
+                } catch (IOException e1) {
+                }
+                throw e;
+            }
+            w.uRemaining = w.unwrapSrc.remaining();
+            if (r.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+                w.handshaken = true;
+            }
+            switch (r.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    needData = true;
+                    break;
+                case BUFFER_OVERFLOW:
+                    is.buf = realloc(is.buf, true, BufType.APPLICATION);
+                    needData = false;
+                    break;
+                case CLOSED:
+                    w.closed = true;
+                    return false;
+                default:
+                    if (w.uRemaining == 0 && r.bytesProduced() > 0) {
+                        return true;
+                    }
+                    needData = w.uRemaining == 0;
+                    break;
+            }
+        }
+    }
+
     /**
      * we've received a close notify. Need to call wrap to send
      * the response
@@ -447,12 +753,9 @@ class SSLStreams {
     private void doClosure() throws IOException {
         try {
             handshaking.lock();
-            ByteBuffer tmp = allocate(BufType.APPLICATION);
             WrapperResult r;
             do {
-                tmp.clear();
-                tmp.flip();
-                r = wrapper.wrapAndSendX(tmp, true);
+                r = wrapper.wrapAndSendX(EMPTY, true);
             } while (r.result.getStatus() != Status.CLOSED);
         } finally {
             handshaking.unlock();
@@ -466,9 +769,10 @@ class SSLStreams {
      * is called with no data to send then there must be no problem
      */
     private void doHandshake(HandshakeStatus handshakeStatus) throws IOException {
+        ByteBuffer tmp = null;
         try {
             handshaking.lock();
-            ByteBuffer tmp = allocate(BufType.APPLICATION);
+            tmp = allocate(BufType.APPLICATION);
             while (handshakeStatus != HandshakeStatus.FINISHED &&
                     handshakeStatus != HandshakeStatus.NOT_HANDSHAKING) {
                 WrapperResult r = null;
@@ -502,6 +806,9 @@ class SSLStreams {
                 handshakeStatus = r.result.getHandshakeStatus();
             }
         } finally {
+            if (tmp != null) {
+                server.bufferPool.release(tmp);
+            }
             handshaking.unlock();
         }
     }
@@ -511,7 +818,7 @@ class SSLStreams {
      * be sent over one stream. closing this stream causes an SSL close
      * input.
      */
-    class InputStream extends java.io.InputStream {
+    class InputStream extends ByteBufferInputStream {
 
         ByteBuffer buf;
         boolean closed = false;
@@ -521,83 +828,101 @@ class SSLStreams {
          */
         boolean eof = false;
 
-        boolean needData = true;
-
         InputStream() {
-            buf = allocate(BufType.APPLICATION);
+            buf = EMPTY;
         }
 
-        @Override
-        public int read(byte[] buf, int off, int len) throws IOException {
-            if (closed) {
-                throw new IOException("SSL stream is closed");
-            }
-            if (eof) {
-                return -1;
-            }
-            int available = 0;
-            if (!needData) {
-                available = this.buf.remaining();
-                needData = (available == 0);
-            }
-            if (needData) {
-                this.buf.clear();
-                WrapperResult r = recvData(this.buf);
-                this.buf = r.buf == this.buf ? this.buf : r.buf;
-                if ((available = this.buf.remaining()) == 0) {
-                    eof = true;
-                    return -1;
-                } else {
-                    needData = false;
-                }
+        void release() {
+            if (buf != EMPTY && !buf.hasRemaining()) {
+                server.bufferPool.release(buf);
+                buf = EMPTY;
+                scanned = 0;
             }
-            /* copy as much as possible from buf into users buf */
-            if (len > available) {
-                len = available;
+        }
+
+        void discard() {
+            if (buf != EMPTY) {
+                server.bufferPool.release(buf);
+                buf = EMPTY;
+                scanned = 0;
             }
-            this.buf.get(buf, off, len);
-            return len;
         }
 
-        @Override
-        public int available() {
-            return buf.remaining();
+        /**
+         * readies buf for unwrapping after the bytes it holds
+         */
+        private void compact() {
+            if (buf == EMPTY) {
+                buf = allocate(BufType.APPLICATION);
+            } else {
+                buf.compact();
+            }
         }
 
         @Override
-        public boolean markSupported() {
-            /* not possible with SSLEngine */
-            return false;
+        ByteBuffer buffer() {
+            return buf;
         }
 
         @Override
-        public void reset() throws IOException {
-            throw new IOException("mark/reset not supported");
+        int fill() throws IOException {
+            if (closed) {
+                throw new IOException("SSL stream is closed");
+            }
+            if (eof) {
+                return -1;
+            }
+            int before = buf.remaining();
+            compact();
+            WrapperResult r = recvData(buf);
+            buf = r.buf;
+            int n = buf.remaining() - before;
+            if (n <= 0) {
+                eof = true;
+                return -1;
+            }
+            return n;
         }
 
         @Override
-        public long skip(long s) throws IOException {
-            int n = (int) s;
+        int fillNow() throws IOException {
             if (closed) {
                 throw new IOException("SSL stream is closed");
             }
             if (eof) {
                 return -1;
             }
-            int ret = n;
-            while (n > 0) {
-                if (buf.remaining() >= n) {
-                    buf.position(buf.position() + n);
-                    return ret;
-                } else {
-                    n -= buf.remaining();
-                    buf.clear();
-                    WrapperResult r = recvData(buf);
-                    buf = r.buf;
-                }
+            int before = buf.remaining();
+            compact();
+            boolean open;
+            try {
+                open = unwrapNow();
+            } finally {
+                buf.flip();
+            }
+            int n = buf.remaining() - before;
+            if (!open && n == 0) {
+                eof = true;
+                return -1;
+            }
+            return n;
+        }
+
+        @Override
+        int interestOps() {
+            if (delegated) {
+                return 0;
             }
-            /* not reached */
-            return ret;
+            ByteBuffer pending = wrapper.wrapDst;
+            return pending != null && pending.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        }
+
+        /**
+         * true if bytes which were read from the channel are waiting
+         * to be unwrapped
+         */
+        boolean isRecordBuffered() {
+            return wrapper.uRemaining > 0;
         }
 
         /**
@@ -610,37 +935,38 @@ class SSLStreams {
             eof = true;
             engine.closeInbound();
         }
-
-        @Override
-        public int read(byte[] buf) throws IOException {
-            return read(buf, 0, buf.length);
-        }
-
-        byte[] single = new byte[1];
-
-        @Override
-        public int read() throws IOException {
-            int n = read(single, 0, 1);
-            if (n == 0 || n == -1) {
-                return -1;
-            } else {
-                return single[0] & 0xFF;
-            }
-        }
     }
 
     /**
      * represents an SSL output stream. plain text data written to this stream
      * is encrypted by the stream. Multiple HTTPS responses can be sent on
      * one stream. closing this stream initiates an SSL closure
+     * <p>
+     * Small writes are collected until they fill a record, or until
+     * flush() is called, so that each record is wrapped and written once.
+     * Writes of whole records are wrapped from the caller's array.
      */
     class OutputStream extends java.io.OutputStream {
+        /* bytes not wrapped yet, up to a record; null while there are none */
         ByteBuffer buf;
         boolean closed = false;
         byte[] single = new byte[1];
 
         OutputStream() {
-            buf = allocate(BufType.APPLICATION);
+        }
+
+        void release() {
+            if (buf != null && buf.position() == 0) {
+                server.bufferPool.release(buf);
+                buf = null;
+            }
+        }
+
+        void discard() {
+            if (buf != null) {
+                server.bufferPool.release(buf);
+                buf = null;
+            }
         }
 
         @Override
@@ -660,39 +986,77 @@ class SSLStreams {
                 throw new IOException("output stream is closed");
             }
             while (len > 0) {
-                int l = len > buf.capacity() ? buf.capacity() : len;
-                buf.clear();
+                if ((buf == null || buf.position() == 0) && len >= RECORD_SIZE) {
+                    int l = len - len % RECORD_SIZE;
+                    send(ByteBuffer.wrap(b, off, l));
+                    off += l;
+                    len -= l;
+                    continue;
+                }
+                if (buf == null) {
+                    buf = allocate(BufType.APPLICATION);
+                    buf.limit(Math.min(buf.capacity(), RECORD_SIZE));
+                }
+                int l = Math.min(len, buf.remaining());
                 buf.put(b, off, l);
-                len -= l;
                 off += l;
-                buf.flip();
-                WrapperResult r = sendData(buf);
-                if (r.result.getStatus() == Status.CLOSED) {
-                    closed = true;
-                    if (len > 0) {
-                        throw new IOException("output stream is closed");
-                    }
+                len -= l;
+                if (!buf.hasRemaining()) {
+                    sendBuffer();
                 }
             }
         }
 
+        /**
+         * wraps and sends the bytes collected so far
+         */
         @Override
-        public void flush() {
-            /* no-op */
+        public void flush() throws IOException {
+            if (buf != null && buf.position() > 0) {
+                if (closed) {
+                    throw new IOException("output stream is closed");
+                }
+                sendBuffer();
+            }
+        }
+
+        private void sendBuffer() throws IOException {
+            buf.flip();
+            try {
+                send(buf);
+            } finally {
+                buf.clear();
+                buf.limit(Math.min(buf.capacity(), RECORD_SIZE));
+            }
+        }
+
+        private void send(ByteBuffer src) throws IOException {
+            WrapperResult r = sendData(src);
+            if (r.result.getStatus() == Status.CLOSED) {
+                closed = true;
+                if (src.hasRemaining()) {
+                    throw new IOException("output stream is closed");
+                }
+            }
         }
 
         @Override
         public void close() throws IOException {
             WrapperResult r;
-            engine.closeOutbound();
-            closed = true;
-            HandshakeStatus stat = HandshakeStatus.NEED_WRAP;
-            buf.clear();
-            while (stat == HandshakeStatus.NEED_WRAP) {
-                r = wrapper.wrapAndSend(buf);
-                stat = r.result.getHandshakeStatus();
-            }
-            //DISABLED assert r.result.getStatus() == Status.CLOSED;
+            try {
+                if (!closed) {
+                    flush();
+                }
+            } finally {
+                engine.closeOutbound();
+                closed = true;
+                HandshakeStatus stat = HandshakeStatus.NEED_WRAP;
+                while (stat == HandshakeStatus.NEED_WRAP) {
+                    r = wrapper.wrapAndSend(EMPTY);
+                    stat = r.result.getHandshakeStatus();
+                }
+                //DISABLED assert r.result.getStatus() == Status.CLOSED;
+            }
         }
     }
 }
@@ -45,11 +45,20 @@ class ServerConfig {
 
     static final long DEFAULT_MAX_REQ_TIME = -1; // default: forever
     static final long DEFAULT_MAX_RSP_TIME = -1; // default: forever
+    static final long DEFAULT_MAX_REQ_HEAD_TIME = 30; // 30 seconds
     static final long DEFAULT_TIMER_MILLIS = 1000;
 
     static final long DEFAULT_DRAIN_AMOUNT = 64 * 1024;
     static final long DEFAULT_MAX_REQ_HEADER_SIZE = 1024 * 1024;
     static final int  DEFAULT_MAX_REQ_HEADERS = 200;
+    static final int DEFAULT_SELECTOR_THREADS = 0; // one per processor
+    static final String DEFAULT_EXECUTOR = "virtual";
+    static final int DEFAULT_WORKER_THREADS = 200;
+    static final int DEFAULT_MAX_PIPELINED_REQUESTS = 1;
+    static final long DEFAULT_BUFFER_POOL_SIZE = 4 * 1024 * 1024;
+    static final int DEFAULT_HANDSHAKE_THREADS = 0;
+    static final int DEFAULT_MAX_QUEUED_HANDSHAKES = 1024;
+    static final boolean DEFAULT_NO_DELAY = true;
 
     final long idleInterval;
     final long drainAmount; // max # of bytes to drain from an inputstream
@@ -63,7 +72,27 @@ class ServerConfig {
     // max time a request or response is allowed to take
     final long maxReqTime;
     final long maxRspTime;
+    // max time the head of a request may take, even if maxReqTime is not set
+    final long maxReqHeadTime;
     final long timerMillis;
+    // number of selector (dispatcher) threads, excluding the acceptor. They
+    // read request heads and drive TLS handshakes, so one per processor
+    final int selectorThreads;
+    // executor used when none is set: "virtual", "pool" or "inline"
+    final String executor;
+    // size of the platform thread pool, when no virtual threads are used
+    final int workerThreads;
+    // pipelined requests on a connection which may be handled concurrently
+    final int maxPipelinedRequests;
+    // bytes of idle I/O buffers kept per size class
+    final long bufferPoolSize;
+    // threads running the delegated tasks of TLS handshakes
+    final int handshakeThreads;
+    // handshake steps waiting for one of those threads
+    final int maxQueuedHandshakes;
+    // TCP_NODELAY for accepted connections; the server writes whole heads,
+    // chunks and records, so Nagle's algorithm only delays them
+    final boolean noDelay;
     final boolean debug;
 
     public ServerConfig() {
@@ -79,7 +108,19 @@ class ServerConfig {
         maxReqHeaders = getLongProperty(configuration, "sun.net.httpserver.maxReqHeaders", DEFAULT_MAX_REQ_HEADERS);
         maxReqTime = getLongProperty(configuration, "sun.net.httpserver.maxReqTime", DEFAULT_MAX_REQ_TIME);
         maxRspTime = getLongProperty(configuration, "sun.net.httpserver.maxRspTime", DEFAULT_MAX_RSP_TIME);
+        maxReqHeadTime = getLongProperty(configuration, "sun.net.httpserver.maxReqHeadTime", DEFAULT_MAX_REQ_HEAD_TIME);
         timerMillis = getLongProperty(configuration, "sun.net.httpserver.timerMillis", DEFAULT_TIMER_MILLIS);
+        int n = getIntegerProperty(configuration, "sun.net.httpserver.selectorThreads", DEFAULT_SELECTOR_THREADS);
+        selectorThreads = n > 0 ? n : Runtime.getRuntime().availableProcessors();
+        executor = getStringProperty(configuration, "sun.net.httpserver.executor", DEFAULT_EXECUTOR);
+        workerThreads = getIntegerProperty(configuration, "sun.net.httpserver.workerThreads", DEFAULT_WORKER_THREADS);
+        maxPipelinedRequests = getIntegerProperty(configuration, "sun.net.httpserver.maxPipelinedRequests", DEFAULT_MAX_PIPELINED_REQUESTS);
+        bufferPoolSize = getLongProperty(configuration, "sun.net.httpserver.bufferPoolSize", DEFAULT_BUFFER_POOL_SIZE);
+        n = getIntegerProperty(configuration, "sun.net.httpserver.handshakeThreads", DEFAULT_HANDSHAKE_THREADS);
+        handshakeThreads = n > 0 ? n : Runtime.getRuntime().availableProcessors();
+        n = getIntegerProperty(configuration, "sun.net.httpserver.maxQueuedHandshakes", DEFAULT_MAX_QUEUED_HANDSHAKES);
+        maxQueuedHandshakes = n > 0 ? n : DEFAULT_MAX_QUEUED_HANDSHAKES;
+        noDelay = getBooleanProperty(configuration, "sun.net.httpserver.nodelay", DEFAULT_NO_DELAY);
         debug = getBooleanProperty(configuration, "sun.net.httpserver.debug");
     }
 
@@ -142,10 +183,46 @@ class ServerConfig {
         return maxRspTime;
     }
 
+    long getMaxReqHeadTime() {
+        return maxReqHeadTime;
+    }
+
     long getTimerMillis() {
         return timerMillis;
     }
 
+    int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    String getExecutor() {
+        return executor;
+    }
+
+    int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    long getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+
+    int getHandshakeThreads() {
+        return handshakeThreads;
+    }
+
+    int getMaxQueuedHandshakes() {
+        return maxQueuedHandshakes;
+    }
+
+    boolean getNoDelay() {
+        return noDelay;
+    }
+
     private long getLongProperty(final Map<String, String> configuration, final String property, final long defaultVal) {
         if (configuration != null && configuration.containsKey(property)) {
             return Long.parseLong(configuration.get(property));
@@ -170,14 +247,31 @@ class ServerConfig {
         }).intValue();
     }
 
+    private String getStringProperty(final Map<String, String> configuration, final String property, final String defaultVal) {
+        if (configuration != null && configuration.containsKey(property)) {
+            return configuration.get(property);
+        }
+
+        return AccessController.doPrivileged(new PrivilegedAction<String>() {
+            public String run() {
+                return System.getProperty(property, defaultVal);
+            }
+        });
+    }
+
     private boolean getBooleanProperty(final Map<String, String> configuration, final String property) {
+        return getBooleanProperty(configuration, property, false);
+    }
+
+    private boolean getBooleanProperty(final Map<String, String> configuration, final String property, final boolean defaultVal) {
         if (configuration != null && configuration.containsKey(property)) {
             return Boolean.parseBoolean(configuration.get(property));
         }
 
         return AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
             public Boolean run() {
-                return Boolean.valueOf(Boolean.getBoolean(property));
+                String value = System.getProperty(property);
+                return Boolean.valueOf(value == null ? defaultVal : Boolean.parseBoolean(value));
             }
         }).booleanValue();
     }
@@ -30,14 +30,20 @@ import org.jboss.sun.net.httpserver.HttpConnection.State;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
-import java.io.BufferedInputStream;
+import javax.net.ssl.SSLSessionContext;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.*;
 import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,46 +55,50 @@ class ServerImpl implements TimeSource {
     private String protocol;
     private boolean https;
     private Executor executor;
+    /* set when the server created its own executor, which it shuts down on stop */
+    private ExecutorService defaultExecutor;
     private HttpsConfigurator httpsConfig;
     private SSLContext sslContext;
     private ContextList contexts;
     private InetSocketAddress address;
     private ServerSocketChannel serverSocketChannel;
-    private Selector selector;
-    private SelectionKey listenerKey;
-    private Set<HttpConnection> idleConnections;
-    private Set<HttpConnection> allConnections;
-    /**
-     * following two are used to keep track of the times
-     * when a connection/request is first received
-     * and when we start to send the response
-     */
-    private Set<HttpConnection> reqConnections;
-    private Set<HttpConnection> rspConnections;
-    private List<Event> events;
-    private Object lolock = new Object();
     private volatile boolean finished = false;
     private volatile boolean terminating = false;
     private boolean bound = false;
     private boolean started = false;
-    private volatile long time;  /* current time */
-    private volatile long subticks = 0;
-    private volatile long ticks; /* number of clock ticks since server started */
     private HttpServer wrapper;
 
     private final ServerConfig serverConfig;
     private final int clockTick;
     private final long idleInterval;
     private final int maxIdleConnections;
+    private final int maxPipelinedRequests;
     private final long timerMillis;
     private final long maxReqTime;
+    private final long maxReqHeadTime;
     private final long maxRspTime;
     private final boolean timer1Enabled;
     private final boolean debug;
 
-    private Timer timer, timer1;
+    /* idle, request and response timeouts of all connections */
+    private final TimerWheel timerWheel;
+    /* direct buffers for the I/O of the connections */
+    final BufferPool bufferPool;
+    /* runs the delegated tasks of the TLS handshakes, https only */
+    final HandshakeExecutor handshakeExecutor;
     private Logger logger;
 
+    /**
+     * the acceptor hands each new connection to one of the dispatchers
+     * in turn. A connection stays with the same dispatcher for its
+     * whole life
+     */
+    private final Acceptor acceptor;
+    private final Dispatcher[] dispatchers;
+
+    /* number of buckets of the timer wheel; at the default clock tick one turn takes 85 minutes */
+    private static final int TIMER_WHEEL_SIZE = 512;
+
     ServerImpl(HttpServer wrapper, String protocol, InetSocketAddress addr, int backlog) throws IOException {
         this(wrapper, protocol, addr, backlog, null);
     }
@@ -100,9 +110,11 @@ class ServerImpl implements TimeSource {
         clockTick = sc.getClockTick();
         idleInterval = sc.getIdleInterval();
         maxIdleConnections = sc.getMaxIdleConnections();
+        maxPipelinedRequests = sc.getMaxPipelinedRequests();
         timerMillis = sc.getTimerMillis();
         maxReqTime = getTimeMillis(sc.getMaxReqTime());
         maxRspTime = getTimeMillis(sc.getMaxRspTime());
+        maxReqHeadTime = getTimeMillis(sc.getMaxReqHeadTime());
         timer1Enabled = maxReqTime != -1 || maxRspTime != -1;
         debug = sc.debugEnabled();
         this.serverConfig = sc;
@@ -120,26 +132,28 @@ class ServerImpl implements TimeSource {
             socket.bind(addr, backlog);
             bound = true;
         }
-        selector = Selector.open();
-        serverSocketChannel.configureBlocking(false);
-        listenerKey = serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-        dispatcher = new Dispatcher();
-        idleConnections = Collections.synchronizedSet(new HashSet<>());
-        allConnections = Collections.synchronizedSet(new HashSet<>());
-        reqConnections = Collections.synchronizedSet(new HashSet<>());
-        rspConnections = Collections.synchronizedSet(new HashSet<>());
-        time = System.currentTimeMillis();
-        timer = new Timer("server-timer", true);
-        timer.schedule(new ServerTimerTask(), clockTick, clockTick);
+        acceptor = new Acceptor();
+        dispatchers = new Dispatcher[sc.getSelectorThreads()];
+        for (int i = 0; i < dispatchers.length; i++) {
+            dispatchers[i] = new Dispatcher();
+        }
+        bufferPool = new BufferPool(sc.getBufferPoolSize());
+        handshakeExecutor = https
+                ? new HandshakeExecutor(logger, sc.getHandshakeThreads(), sc.getMaxQueuedHandshakes())
+                : null;
+        timerWheel = new TimerWheel(logger, timer1Enabled ? Math.min(clockTick, timerMillis) : clockTick, TIMER_WHEEL_SIZE);
+        timerWheel.start();
         if (timer1Enabled) {
-            timer1 = new Timer("server-timer1", true);
-            timer1.schedule(new ServerTimerTask1(), timerMillis, timerMillis);
             logger.config("HttpServer timer1 enabled period in ms:  " + timerMillis);
             logger.config("MAX_REQ_TIME:  " + maxReqTime);
             logger.config("MAX_RSP_TIME:  " + maxRspTime);
         }
-        events = new LinkedList<>();
+        logger.config("MAX_REQ_HEAD_TIME:  " + maxReqHeadTime);
         logger.config("HttpServer created " + protocol + " " + addr);
+        logger.config("SELECTOR_THREADS:  " + dispatchers.length);
+        if (https) {
+            logger.config("HANDSHAKE_THREADS:  " + sc.getHandshakeThreads());
+        }
     }
 
     public void bind(InetSocketAddress addr, int backlog) throws IOException {
@@ -159,9 +173,16 @@ class ServerImpl implements TimeSource {
             throw new IllegalStateException("server in wrong state");
         }
         if (executor == null) {
-            executor = new DefaultExecutor();
+            executor = createDefaultExecutor();
+        }
+        if (httpsConfig != null) {
+            configureSessions(httpsConfig);
+        }
+        for (int i = 0; i < dispatchers.length; i++) {
+            Thread t = new Thread(dispatchers[i], "HTTP-Dispatcher-" + i);
+            t.start();
         }
-        Thread t = new Thread(dispatcher);
+        Thread t = new Thread(acceptor, "HTTP-Acceptor");
         started = true;
         t.start();
     }
@@ -173,6 +194,49 @@ class ServerImpl implements TimeSource {
         this.executor = executor;
     }
 
+    private Executor createDefaultExecutor() {
+        String mode = serverConfig.getExecutor();
+        if ("inline".equalsIgnoreCase(mode)) {
+            logger.config("EXECUTOR:  inline");
+            return new DefaultExecutor();
+        }
+        int n = serverConfig.getWorkerThreads();
+        if (n <= 0) {
+            n = ServerConfig.DEFAULT_WORKER_THREADS;
+        }
+        if ("pool".equalsIgnoreCase(mode)) {
+            defaultExecutor = HttpServer.newThreadPoolExecutor(n);
+        } else {
+            defaultExecutor = HttpServer.newVirtualThreadExecutor(n);
+        }
+        /* newVirtualThreadExecutor() falls back to a pool by itself */
+        if (defaultExecutor instanceof ThreadPoolExecutor) {
+            logger.config("EXECUTOR:  pool of " + n + " threads");
+        } else {
+            logger.config("EXECUTOR:  virtual threads");
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * applies the session cache settings of config to the server
+     * session context of its SSLContext
+     */
+    private void configureSessions(HttpsConfigurator config) {
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        if (sessions == null) {
+            return;
+        }
+        if (config.getSessionCacheSize() >= 0) {
+            sessions.setSessionCacheSize(config.getSessionCacheSize());
+        }
+        if (config.getSessionTimeout() >= 0) {
+            sessions.setSessionTimeout(config.getSessionTimeout());
+        }
+        logger.config("SESSION_CACHE_SIZE:  " + sessions.getSessionCacheSize());
+        logger.config("SESSION_TIMEOUT:  " + sessions.getSessionTimeout());
+    }
+
     private static class DefaultExecutor implements Executor {
         @Override
         public void execute(Runnable task) {
@@ -199,6 +263,10 @@ class ServerImpl implements TimeSource {
         return httpsConfig;
     }
 
+    public HandshakeStatistics getHandshakeStatistics() {
+        return handshakeExecutor;
+    }
+
     public ServerConfig getServerConfig() {
         return serverConfig;
     }
@@ -212,7 +280,7 @@ class ServerImpl implements TimeSource {
             serverSocketChannel.close();
         } catch (IOException e) {
         }
-        selector.wakeup();
+        wakeupDispatchers();
         long latest = System.currentTimeMillis() + delay * 1000;
         while (System.currentTimeMillis() < latest) {
             delay();
@@ -221,21 +289,27 @@ class ServerImpl implements TimeSource {
             }
         }
         finished = true;
-        selector.wakeup();
-        synchronized (allConnections) {
-            for (HttpConnection c : allConnections) {
+        wakeupDispatchers();
+        for (Dispatcher d : dispatchers) {
+            for (HttpConnection c : d.allConnections) {
                 c.close();
             }
+            d.allConnections.clear();
         }
-        allConnections.clear();
-        idleConnections.clear();
-        timer.cancel();
-        if (timer1Enabled) {
-            timer1.cancel();
+        timerWheel.stop();
+        if (handshakeExecutor != null) {
+            handshakeExecutor.shutdown();
+        }
+        if (defaultExecutor != null) {
+            defaultExecutor.shutdown();
         }
     }
 
-    Dispatcher dispatcher;
+    private void wakeupDispatchers() {
+        for (Dispatcher d : dispatchers) {
+            d.selector.wakeup();
+        }
+    }
 
     public synchronized HttpContextImpl createContext(String path, HttpHandler handler) {
         if (handler == null || path == null) {
@@ -277,47 +351,231 @@ class ServerImpl implements TimeSource {
         return (InetSocketAddress) serverSocketChannel.socket().getLocalSocketAddress();
     }
 
-    Selector getSelector() {
-        return selector;
+    void addEvent(Event r) {
+        r.exchange.getConnection().getDispatcher().addEvent(r);
     }
 
-    void addEvent(Event r) {
-        synchronized (lolock) {
-            events.add(r);
-            selector.wakeup();
+    /**
+     * number of idle connections over all dispatchers
+     */
+    private int idleConnectionCount() {
+        int n = 0;
+        for (Dispatcher d : dispatchers) {
+            n += d.idleCount.get();
         }
+        return n;
     }
 
     /**
-     * main server listener task
+     * accepts new connections in blocking mode and distributes them
+     * round-robin over the dispatchers
+     */
+    class Acceptor implements Runnable {
+
+        private int next = 0;
+
+        @Override
+        public void run() {
+            try {
+                serverSocketChannel.configureBlocking(true);
+            } catch (IOException e) {
+                logger.log(Level.FINER, "Acceptor (1)", e);
+                return;
+            }
+            while (!terminating) {
+                try {
+                    SocketChannel socketChannel = serverSocketChannel.accept();
+                    if (socketChannel == null) {
+                        continue;
+                    }
+                    if (terminating) {
+                        socketChannel.close();
+                        break;
+                    }
+                    Dispatcher d = dispatchers[next];
+                    next = (next + 1) % dispatchers.length;
+                    d.addChannel(socketChannel);
+                } catch (ClosedChannelException e) {
+                    /* listener closed by stop() */
+                    break;
+                } catch (IOException e) {
+                    logger.log(Level.FINER, "Acceptor (2)", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * main server listener task. Each dispatcher owns a selector and the
+     * connections registered with it
      */
     class Dispatcher implements Runnable {
 
+        final Selector selector;
+        final Set<HttpConnection> allConnections;
+        /* connections in the IDLE state, maintained by HttpConnection.setState() */
+        final AtomicInteger idleCount = new AtomicInteger();
+        /*
+         * work handed to the dispatcher by other threads. These are
+         * multi-producer/single-consumer queues drained by the dispatcher
+         * after each select. wakeupPending is set by the first producer
+         * after a drain, so only that producer calls selector.wakeup()
+         */
+        private final Queue<Event> events;
+        private final Queue<SocketChannel> newChannels;
+        private final Queue<HttpConnection> interestRequests;
+        private final Queue<HttpConnection> connsToRegister;
+        private final Queue<HttpConnection> handshakes;
+        private final Queue<HttpConnection> timedOut;
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        private volatile Thread thread;
+        /* only used by the dispatcher thread, when an exchange run inline blocks */
+        private Selector tmpSelector;
+
+        Dispatcher() throws IOException {
+            selector = Selector.open();
+            allConnections = ConcurrentHashMap.newKeySet();
+            events = new ConcurrentLinkedQueue<>();
+            newChannels = new ConcurrentLinkedQueue<>();
+            interestRequests = new ConcurrentLinkedQueue<>();
+            connsToRegister = new ConcurrentLinkedQueue<>();
+            handshakes = new ConcurrentLinkedQueue<>();
+            timedOut = new ConcurrentLinkedQueue<>();
+        }
+
+        /**
+         * wake up the selector, unless another producer has already done so
+         * since the dispatcher last drained its queues. This includes the
+         * dispatcher thread itself, so that its next select returns at once
+         */
+        private void wakeup() {
+            if (!wakeupPending.get() && wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void addEvent(Event r) {
+            events.offer(r);
+            wakeup();
+        }
+
+        /**
+         * called by the acceptor. The channel is registered
+         * from the dispatcher thread itself
+         */
+        void addChannel(SocketChannel c) {
+            newChannels.offer(c);
+            wakeup();
+        }
+
+        /**
+         * called by a thread which is about to block on the given connection.
+         * The interest ops of its key are updated from the dispatcher thread
+         */
+        void enableInterest(HttpConnection c) {
+            interestRequests.offer(c);
+            wakeup();
+        }
+
+        /**
+         * re-arm an idle connection for reading
+         */
+        void registerIdle(HttpConnection c) {
+            connsToRegister.offer(c);
+            wakeup();
+        }
+
+        /**
+         * called by a handshake thread once the delegated tasks of
+         * the connection's engine have run
+         */
+        void resumeHandshake(HttpConnection c) {
+            handshakes.offer(c);
+            wakeup();
+        }
+
+        /**
+         * called by the timer wheel once it has closed the connection,
+         * so that its buffers are given back from the dispatcher thread
+         */
+        void timedOut(HttpConnection c) {
+            timedOut.offer(c);
+            wakeup();
+        }
+
+        boolean isDispatcherThread() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * blocks the dispatcher thread itself until the connection is ready.
+         * This only happens when an exchange is run inline by the default
+         * executor, so the dispatcher's own selector cannot be used
+         */
+        void awaitReady(HttpConnection c, int op) throws IOException {
+            if (tmpSelector == null) {
+                tmpSelector = Selector.open();
+            }
+            SocketChannel chan = c.getChannel();
+            SelectionKey key = chan.register(tmpSelector, op);
+            try {
+                while (tmpSelector.select(1000) == 0) {
+                    if (finished || !chan.isOpen()) {
+                        throw new IOException("connection closed");
+                    }
+                }
+                tmpSelector.selectedKeys().clear();
+            } finally {
+                key.cancel();
+                tmpSelector.selectNow();
+            }
+        }
+
         private void handleEvent(Event r) {
             ExchangeImpl t = r.exchange;
             HttpConnection c = t.getConnection();
             try {
                 if (r instanceof WriteFinishedEvent) {
 
-                    int exchanges = endExchange();
+                    long exchanges = endExchange();
                     if (terminating && exchanges == 0) {
                         finished = true;
                     }
-                    responseCompleted(c);
                     LeftOverInputStream is = t.getOriginalInputStream();
                     if (!is.isEOF()) {
                         t.close = true;
                     }
-                    if (t.close || idleConnections.size() >= maxIdleConnections) {
-                        c.close();
-                        allConnections.remove(c);
+                    if (t.close) {
+                        c.closePending = true;
+                    }
+                    if (--c.pending > 0) {
+                        /* requests pipelined with this one are still being handled */
+                        return;
+                    }
+                    c.pipeline = null;
+                    responseCompleted(c);
+                    boolean close = c.closePending;
+                    c.closePending = false;
+                    /* c itself is counted as idle by now */
+                    if (close || idleConnectionCount() > maxIdleConnections) {
+                        close(c);
                     } else {
-                        if (is.isDataBuffered()) {
+                        if (is.isDataBuffered() || c.sslStreams != null && c.sslStreams.is.isRecordBuffered()) {
                             /* don't re-enable the interestops, just handle it */
                             requestStarted(c);
-                            handle(c.getChannel(), c);
+                            Request req = readHead(c);
+                            if (req != null) {
+                                handle(c.getChannel(), c, req);
+                            }
                         } else {
-                            connsToRegister.add(c);
+                            /* nothing is buffered, the buffers go back to the pool */
+                            if (c.rawIn instanceof Request.ReadStream) {
+                                ((Request.ReadStream) c.rawIn).release();
+                                ((Request.WriteStream) c.rawOut).release();
+                            } else if (c.sslStreams != null) {
+                                c.sslStreams.release();
+                            }
+                            registerIdle(c);
                         }
                     }
                 }
@@ -329,98 +587,128 @@ class ServerImpl implements TimeSource {
             }
         }
 
-        final LinkedList<HttpConnection> connsToRegister = new LinkedList<>();
-
         void reRegister(HttpConnection c) {
-            /* re-register with selector */
+            /* the key is kept for the whole connection, just re-enable reads */
             try {
-                SocketChannel chan = c.getChannel();
-                chan.configureBlocking(false);
-                SelectionKey key = chan.register(selector, SelectionKey.OP_READ);
-                key.attach(c);
-                c.selectionKey = key;
-                c.time = getTime() + idleInterval;
-                idleConnections.add(c);
-            } catch (IOException e) {
+                c.getSelectionKey().interestOps(SelectionKey.OP_READ);
+                timerWheel.schedule(c.timeout, idleInterval);
+            } catch (CancelledKeyException e) {
                 dPrint(e);
                 logger.log(Level.FINER, "Dispatcher(8)", e);
-                c.close();
+                closeConnection(c);
             }
         }
 
+        private void register(SocketChannel socketChannel) throws IOException {
+            if (terminating) {
+                socketChannel.close();
+                return;
+            }
+            socketChannel.configureBlocking(false);
+            if (serverConfig.getNoDelay()) {
+                socketChannel.socket().setTcpNoDelay(true);
+            }
+            SelectionKey newKey = socketChannel.register(selector, SelectionKey.OP_READ);
+            HttpConnection httpConnection = new HttpConnection(ServerImpl.this, this);
+            httpConnection.selectionKey = newKey;
+            httpConnection.setChannel(socketChannel);
+            /* the dispatcher reads request heads into this stream's buffer */
+            if (https) {
+                if (sslContext == null) {
+                    logger.warning("SSL connection received. No https contxt created");
+                    newKey.cancel();
+                    socketChannel.close();
+                    return;
+                }
+                /* the handshake is driven by readHead() */
+                SSLStreams sslStreams = new SSLStreams(ServerImpl.this, sslContext, httpConnection);
+                httpConnection.sslStreams = sslStreams;
+                httpConnection.rawIn = sslStreams.getInputStream();
+                httpConnection.rawOut = sslStreams.getOutputStream();
+            } else {
+                httpConnection.rawIn = new Request.ReadStream(ServerImpl.this, httpConnection);
+                httpConnection.rawOut = new Request.WriteStream(ServerImpl.this, httpConnection);
+            }
+            newKey.attach(httpConnection);
+            allConnections.add(httpConnection);
+            startRequestTimer(httpConnection);
+        }
+
         @Override
         public void run() {
+            thread = Thread.currentThread();
             while (!finished) {
                 try {
-                    for (HttpConnection c : connsToRegister) {
+                    HttpConnection c;
+                    while ((c = connsToRegister.poll()) != null) {
                         reRegister(c);
                     }
-                    connsToRegister.clear();
 
-                    List<Event> list = null;
                     selector.select(1000);
-                    synchronized (lolock) {
-                        if (events.size() > 0) {
-                            list = events;
-                            events = new LinkedList<>();
+                    /* producers from now on must wake the selector again */
+                    wakeupPending.set(false);
+
+                    while ((c = interestRequests.poll()) != null) {
+                        try {
+                            c.updateInterest();
+                        } catch (CancelledKeyException e) {
+                            closeConnection(c);
                         }
                     }
-
-                    if (list != null) {
-                        for (Event r : list) {
-                            handleEvent(r);
+                    SocketChannel chan;
+                    while ((chan = newChannels.poll()) != null) {
+                        try {
+                            register(chan);
+                        } catch (IOException e) {
+                            logger.log(Level.FINER, "Dispatcher (5)", e);
+                            chan.close();
                         }
                     }
+                    while ((c = handshakes.poll()) != null) {
+                        continueHandshake(c);
+                    }
+                    while ((c = timedOut.poll()) != null) {
+                        close(c);
+                    }
+                    Event r;
+                    while ((r = events.poll()) != null) {
+                        handleEvent(r);
+                    }
                     /* process the selected list now  */
                     Set<SelectionKey> selected = selector.selectedKeys();
                     Iterator<SelectionKey> iter = selected.iterator();
                     while (iter.hasNext()) {
                         SelectionKey key = iter.next();
                         iter.remove();
-                        if (key.equals(listenerKey)) {
-                            if (terminating) {
+                        try {
+                            HttpConnection connection = (HttpConnection) key.attachment();
+                            if (connection.signalReady(key.readyOps())) {
+                                /* a worker was blocked on this connection */
                                 continue;
                             }
-                            SocketChannel socketChannel = serverSocketChannel.accept();
-                            if (socketChannel == null) {
-                                continue; /* cancel something ? */
-                            }
-                            socketChannel.configureBlocking(false);
-                            SelectionKey newKey = socketChannel.register(selector, SelectionKey.OP_READ);
-                            HttpConnection httpConnection = new HttpConnection(ServerImpl.this);
-                            httpConnection.selectionKey = newKey;
-                            httpConnection.setChannel(socketChannel);
-                            newKey.attach(httpConnection);
-                            requestStarted(httpConnection);
-                            //添加connection
-                            allConnections.add(httpConnection);
-                        } else {
-                            try {
-                                if (key.isReadable()) {
-                                    boolean closed;
-                                    SocketChannel socketChannel = (SocketChannel) key.channel();
-                                    HttpConnection connection = (HttpConnection) key.attachment();
-                                    key.cancel();
-                                    socketChannel.configureBlocking(true);
-                                    if (idleConnections.remove(connection)) {
-                                        // was an idle connection so add it
-                                        // to reqConnections set.
-                                        requestStarted(connection);
-                                    }
-                                    //异步执行handle
-                                    handle(socketChannel, connection);
-                                } else {
-                                    //DISABLED assert false;
+                            if (key.isReadable() || key.isWritable()) {
+                                SocketChannel socketChannel = (SocketChannel) key.channel();
+                                // if it was an idle connection, it now
+                                // waits for the rest of a request
+                                requestStarted(connection);
+                                Request req = readHead(connection);
+                                if (req == null) {
+                                    /* head not complete yet, keep reading here */
+                                    continue;
                                 }
-                            } catch (CancelledKeyException e) {
-                                handleException(key, null);
-                            } catch (IOException e) {
-                                handleException(key, e);
+                                /* owned by the exchange until the response is finished */
+                                key.interestOps(0);
+                                //异步执行handle
+                                handle(socketChannel, connection, req);
+                            } else {
+                                //DISABLED assert false;
                             }
+                        } catch (CancelledKeyException e) {
+                            handleException(key, null);
+                        } catch (IOException e) {
+                            handleException(key, e);
                         }
                     }
-                    // call the selector just to process the cancelled keys
-                    selector.selectNow();
                 } catch (IOException e) {
                     logger.log(Level.FINER, "Dispatcher (4)", e);
                 } catch (Exception e) {
@@ -428,6 +716,36 @@ class ServerImpl implements TimeSource {
                     logger.log(Level.FINER, "Dispatcher (7)", e);
                 }
             }
+            try {
+                selector.close();
+                if (tmpSelector != null) {
+                    tmpSelector.close();
+                }
+            } catch (IOException e) {
+                logger.log(Level.FINER, "Dispatcher (6)", e);
+            }
+        }
+
+        /**
+         * goes on with the handshake of c, whose key does not wait
+         * for anything while the handshake executor has it
+         */
+        private void continueHandshake(HttpConnection c) {
+            if (c.closed) {
+                return;
+            }
+            try {
+                Request req = readHead(c);
+                if (req != null) {
+                    c.getSelectionKey().interestOps(0);
+                    handle(c.getChannel(), c, req);
+                }
+            } catch (CancelledKeyException e) {
+                close(c);
+            } catch (IOException e) {
+                logger.log(Level.FINER, "Dispatcher (10)", e);
+                close(c);
+            }
         }
 
         private void handleException(SelectionKey key, Exception e) {
@@ -435,13 +753,120 @@ class ServerImpl implements TimeSource {
             if (e != null) {
                 logger.log(Level.FINER, "Dispatcher (2)", e);
             }
-            closeConnection(conn);
+            close(conn);
+        }
+
+        /**
+         * closes c from this dispatcher. Unless an exchange still has
+         * the connection, its buffers go back to the pool, whatever they
+         * hold, as nothing reads from or writes to them any more
+         */
+        private void close(HttpConnection c) {
+            closeConnection(c);
+            if (c.pending == 0) {
+                if (c.rawIn instanceof Request.ReadStream) {
+                    ((Request.ReadStream) c.rawIn).discard();
+                    ((Request.WriteStream) c.rawOut).discard();
+                } else if (c.sslStreams != null) {
+                    c.sslStreams.discard();
+                }
+            }
         }
 
-        public void handle(SocketChannel socketChannel, HttpConnection connection) throws IOException {
+        /**
+         * reads what is available on the connection without blocking,
+         * and parses the request head once all of it has arrived. On
+         * https connections this also runs the TLS handshake. Slow
+         * clients thus never hold on to a worker thread during the
+         * handshake or while sending the head. While more bytes are
+         * needed, the key waits for whatever the stream waits for.
+         *
+         * @return the parsed request, or null if more bytes are needed
+         *         or the connection was closed
+         */
+        private Request readHead(HttpConnection c) throws IOException {
+            ByteBufferInputStream in = c.rawIn;
+            try {
+                if (Request.endOfHead(in) == -1) {
+                    if (in.fillNow() == -1) {
+                        close(c);
+                        return null;
+                    }
+                    if (Request.endOfHead(in) == -1) {
+                        c.getSelectionKey().interestOps(in.interestOps());
+                        return null;
+                    }
+                }
+                headCompleted(c);
+                return new Request(in, c.rawOut);
+            } catch (IOException e) {
+                logger.log(Level.FINER, "Dispatcher (9)", e);
+                close(c);
+                return null;
+            }
+        }
+
+        /**
+         * hands req to the executor, together with the requests pipelined
+         * behind it which are already buffered, if they can be handled
+         * concurrently. Their responses are written in request order.
+         */
+        public void handle(SocketChannel socketChannel, HttpConnection connection, Request req) throws IOException {
+            List<Request> pipelined = null;
+            if (req != null && maxPipelinedRequests > 1) {
+                pipelined = readPipelined(connection, req);
+            }
+            if (pipelined == null) {
+                connection.pending = 1;
+                execute(socketChannel, connection, req);
+                return;
+            }
+            connection.pending = pipelined.size();
+            PipelinedOutputStream out = null;
+            for (Request r : pipelined) {
+                out = new PipelinedOutputStream(ServerImpl.this, connection, out);
+                r.setOutputStream(out);
+                if (r == req) {
+                    /* failed by the connection when it is closed */
+                    connection.pipeline = out;
+                }
+            }
+            for (Request r : pipelined) {
+                execute(socketChannel, connection, r);
+            }
+        }
+
+        /**
+         * parses the complete request heads buffered after req, up to
+         * maxPipelinedRequests in all
+         *
+         * @return the requests including req, or null if there are none
+         */
+        private List<Request> readPipelined(HttpConnection c, Request req) {
+            ByteBufferInputStream in = c.rawIn;
+            List<Request> list = null;
+            try {
+                while (req.canPipeline() && in.available() > 0
+                        && (list == null || list.size() < maxPipelinedRequests)
+                        && Request.endOfHead(in) != -1) {
+                    if (list == null) {
+                        list = new ArrayList<Request>(maxPipelinedRequests);
+                        list.add(req);
+                    }
+                    req = new Request(in, c.rawOut);
+                    list.add(req);
+                }
+            } catch (IOException e) {
+                /* left for the exchange which reads the next request */
+                logger.log(Level.FINER, "Dispatcher (10)", e);
+            }
+            return list;
+        }
+
+        private void execute(SocketChannel socketChannel, HttpConnection connection, Request req) {
             try {
                 //接收数据交给另外一个线程
-                Exchange t = new Exchange(socketChannel, protocol, connection);
+                Exchange t = new Exchange(socketChannel, protocol, connection, req);
                 executor.execute(t);
             } catch (HttpError e1) {
                 logger.log(Level.FINER, "Dispatcher (4)", e1);
@@ -450,13 +875,13 @@ class ServerImpl implements TimeSource {
         }
     }
 
-    synchronized void dPrint(String s) {
+    void dPrint(String s) {
         if (debug) {
             System.out.println(s);
         }
     }
 
-    synchronized void dPrint(Exception e) {
+    void dPrint(Exception e) {
         if (debug) {
             System.out.println(e);
             e.printStackTrace();
@@ -467,25 +892,31 @@ class ServerImpl implements TimeSource {
         return logger;
     }
 
-    private void closeConnection(HttpConnection conn) {
+    void closeConnection(HttpConnection conn) {
         conn.close();
-        allConnections.remove(conn);
-        switch (conn.getState()) {
+        Dispatcher d = conn.getDispatcher();
+        d.allConnections.remove(conn);
+        timerWheel.cancel(conn.timeout);
+    }
+
+    /**
+     * called by the timer wheel when a connection has been idle for too long,
+     * or its request or response has not completed in time
+     */
+    void timeout(HttpConnection c) {
+        switch (c.getState()) {
             case REQUEST:
-                reqConnections.remove(conn);
+                logger.log(Level.FINE, "closing: no request: " + c);
                 break;
             case RESPONSE:
-                rspConnections.remove(conn);
-                break;
-            case IDLE:
-                idleConnections.remove(conn);
+                logger.log(Level.FINE, "closing: no response: " + c);
                 break;
             default:
                 break;
         }
-        //DISABLED assert !reqConnections.remove(conn);
-        //DISABLED assert !rspConnections.remove(conn);
-        //DISABLED assert !idleConnections.remove(conn);
+        /* closed at once, in case a thread is blocked on it */
+        closeConnection(c);
+        c.getDispatcher().timedOut(c);
     }
 
     /* per exchange task 信息交换任务*/
@@ -494,17 +925,20 @@ class ServerImpl implements TimeSource {
         SocketChannel socketChannel;
         HttpConnection connection;
         HttpContextImpl context;
-        InputStream rawIn;
+        ByteBufferInputStream rawIn;
         OutputStream rawOut;
         String protocol;
         ExchangeImpl tx;
         HttpContextImpl ctx;
         boolean rejected = false;
+        /* the request, if its head was read by the dispatcher */
+        Request req;
 
-        Exchange(SocketChannel socketChannel, String protocol, HttpConnection connection) {
+        Exchange(SocketChannel socketChannel, String protocol, HttpConnection connection, Request req) {
             this.socketChannel = socketChannel;
             this.connection = connection;
             this.protocol = protocol;
+            this.req = req;
         }
 
         @Override
@@ -523,24 +957,19 @@ class ServerImpl implements TimeSource {
                 } else {
                     /* figure out what kind of connection this is */
                     newConnection = true;
+                    /* created when the connection was registered */
+                    rawIn = connection.rawIn;
+                    rawOut = connection.rawOut;
                     if (https) {
-                        if (sslContext == null) {
-                            logger.warning("SSL connection received. No https contxt created");
-                            throw new HttpError("No SSL context established");
-                        }
-                        sslStreams = new SSLStreams(ServerImpl.this, sslContext, socketChannel);
-                        rawIn = sslStreams.getInputStream();
-                        rawOut = sslStreams.getOutputStream();
+                        sslStreams = connection.sslStreams;
                         engine = sslStreams.getSSLEngine();
-                        connection.sslStreams = sslStreams;
-                    } else {
-                        rawIn = new BufferedInputStream(new Request.ReadStream(ServerImpl.this, socketChannel));
-                        rawOut = new Request.WriteStream(ServerImpl.this, socketChannel);
                     }
-                    connection.rawIn = rawIn;
-                    connection.rawOut = rawOut;
                 }
-                Request req = new Request(rawIn, rawOut);
+                if (req == null) {
+                    req = new Request(rawIn, rawOut);
+                }
+                /* replies go through the response queue of pipelined requests */
+                rawOut = req.outputStream();
                 requestLine = req.requestLine();
                 if (requestLine == null) {
                     /* connection closed */
@@ -559,8 +988,7 @@ class ServerImpl implements TimeSource {
                     reject(Code.HTTP_BAD_REQUEST, requestLine, "Bad request line");
                     return;
                 }
-                String uriStr = requestLine.substring(start, space);
-                URI uri = new URI(uriStr);
+                RequestTarget target = new RequestTarget(requestLine, start, space);
                 start = space + 1;
                 String version = requestLine.substring(start);
                 Headers headers = req.headers();
@@ -577,7 +1005,7 @@ class ServerImpl implements TimeSource {
                         requestCompleted(connection);
                     }
                 }
-                ctx = contexts.findContext(protocol, uri.getPath());
+                ctx = target.findContext(contexts, protocol);
                 if (ctx == null) {
                     reject(Code.HTTP_NOT_FOUND, requestLine, "No context found for request");
                     return;
@@ -588,7 +1016,7 @@ class ServerImpl implements TimeSource {
                     return;
                 }
                 tx = new ExchangeImpl(
-                        method, uri, req, clen, connection
+                        method, target, req, clen, connection, ctx
                 );
                 String chdr = headers.getFirst("Connection");
                 Headers rheaders = tx.getResponseHeaders();
@@ -612,7 +1040,7 @@ class ServerImpl implements TimeSource {
 
                 if (newConnection) {
                     connection.setParameters(
-                            rawIn, rawOut, socketChannel, engine, sslStreams,
+                            rawIn, connection.rawOut, socketChannel, engine, sslStreams,
                             sslContext, protocol, ctx, rawIn
                     );
                 }
@@ -681,30 +1109,36 @@ class ServerImpl implements TimeSource {
             logReply(code, requestStr, message);
             sendReply(code, false, "<h1>" + code + Code.msg(code) + "</h1>" + message
             );
-            closeConnection(connection);
+            if (rawOut instanceof PipelinedOutputStream) {
+                /* the responses to earlier requests may not be written yet */
+                ((PipelinedOutputStream) rawOut).finished(true);
+            } else {
+                closeConnection(connection);
+            }
         }
 
         void sendReply(int code, boolean closeNow, String text) {
             try {
-                StringBuilder builder = new StringBuilder(512);
-                builder.append("HTTP/1.1 ")
-                        .append(code).append(Code.msg(code)).append("\r\n");
-
-                if (text != null && text.length() != 0) {
-                    builder.append("Content-Length: ")
-                            .append(text.length()).append("\r\n")
-                            .append("Content-Type: text/html\r\n");
-                } else {
-                    builder.append("Content-Length: 0\r\n");
-                    text = "";
-                }
-                if (closeNow) {
-                    builder.append("Connection: close\r\n");
+                ResponseHead head = connection.takeResponseHead();
+                try {
+                    head.statusLine(code);
+                    head.header("Date", ResponseHead.date());
+                    if (text != null && text.length() != 0) {
+                        head.header("Content-Length", Integer.toString(text.length()));
+                        head.header("Content-Type", "text/html");
+                    } else {
+                        head.header("Content-Length", "0");
+                        text = "";
+                    }
+                    if (closeNow) {
+                        head.header("Connection", "close");
+                    }
+                    head.crlf();
+                    head.append(text);
+                    head.writeTo(rawOut);
+                } finally {
+                    connection.releaseResponseHead(head);
                 }
-                builder.append("\r\n").append(text);
-                String s = builder.toString();
-                byte[] b = s.getBytes("ISO8859_1");
-                rawOut.write(b);
                 rawOut.flush();
                 if (closeNow) {
                     closeConnection(connection);
@@ -736,12 +1170,12 @@ class ServerImpl implements TimeSource {
     }
 
     long getTicks() {
-        return ticks;
+        return timerWheel.getTicks();
     }
 
     @Override
     public long getTime() {
-        return time;
+        return timerWheel.getTime();
     }
 
     private void delay() {
@@ -752,26 +1186,63 @@ class ServerImpl implements TimeSource {
         }
     }
 
-    private int exchangeCount = 0;
+    private final LongAdder exchangeCount = new LongAdder();
 
-    synchronized void startExchange() {
-        exchangeCount++;
+    void startExchange() {
+        exchangeCount.increment();
     }
 
-    private synchronized int endExchange() {
-        exchangeCount--;
-        //DISABLED assert exchangeCount >= 0;
-        return exchangeCount;
+    private long endExchange() {
+        exchangeCount.decrement();
+        //DISABLED assert exchangeCount.sum() >= 0;
+        return exchangeCount.sum();
     }
 
     HttpServer getWrapper() {
         return wrapper;
     }
 
+    /**
+     * called when data arrives on an idle connection
+     */
     private void requestStarted(HttpConnection c) {
+        if (c.setState(State.IDLE, State.REQUEST)) {
+            startRequestTimer(c);
+        }
+    }
+
+    private void startRequestTimer(HttpConnection c) {
         c.creationTime = getTime();
-        c.setState(State.REQUEST);
-        reqConnections.add(c);
+        long t = headTime();
+        if (t != -1) {
+            timerWheel.schedule(c.timeout, t);
+        } else {
+            timerWheel.cancel(c.timeout);
+        }
+    }
+
+    /**
+     * the time allowed for the head of a request. Connections waiting
+     * for the rest of a head sit on a dispatcher, so they are closed
+     * after maxReqHeadTime even when maxReqTime is not set
+     */
+    private long headTime() {
+        if (maxReqHeadTime == -1 || maxReqTime != -1 && maxReqTime < maxReqHeadTime) {
+            return maxReqTime;
+        }
+        return maxReqHeadTime;
+    }
+
+    /**
+     * called by the dispatcher when the whole head of a request has
+     * arrived. What is left of maxReqTime applies to the body
+     */
+    private void headCompleted(HttpConnection c) {
+        if (maxReqTime == -1) {
+            timerWheel.cancel(c.timeout);
+        } else if (headTime() != maxReqTime) {
+            timerWheel.schedule(c.timeout, Math.max(0, c.creationTime + maxReqTime - getTime()));
+        }
     }
 
     // called after a request has been completely read
@@ -783,10 +1254,14 @@ class ServerImpl implements TimeSource {
 
     void requestCompleted(HttpConnection c) {
         //DISABLED assert c.getState() == State.REQUEST;
-        reqConnections.remove(c);
-        c.rspStartedTime = getTime();
-        rspConnections.add(c);
-        c.setState(State.RESPONSE);
+        if (!c.setState(State.REQUEST, State.RESPONSE)) {
+            return;
+        }
+        if (maxRspTime != -1) {
+            timerWheel.schedule(c.timeout, maxRspTime);
+        } else {
+            timerWheel.cancel(c.timeout);
+        }
     }
 
     /**
@@ -794,74 +1269,8 @@ class ServerImpl implements TimeSource {
      */
     private void responseCompleted(HttpConnection c) {
         //DISABLED assert c.getState() == State.RESPONSE;
-        rspConnections.remove(c);
-        c.setState(State.IDLE);
-    }
-
-    /**
-     * TimerTask run every CLOCK_TICK ms
-     */
-    class ServerTimerTask extends TimerTask {
-
-        @Override
-        public void run() {
-            LinkedList<HttpConnection> toClose = new LinkedList<HttpConnection>();
-            time = System.currentTimeMillis();
-            ticks++;
-            synchronized (idleConnections) {
-                for (HttpConnection c : idleConnections) {
-                    if (c.time <= time) {
-                        toClose.add(c);
-                    }
-                }
-                for (HttpConnection c : toClose) {
-                    idleConnections.remove(c);
-                    allConnections.remove(c);
-                    c.close();
-                }
-            }
-        }
-    }
-
-    class ServerTimerTask1 extends TimerTask {
-
-        // runs every TIMER_MILLIS
-        @Override
-        public void run() {
-            LinkedList<HttpConnection> toClose = new LinkedList<HttpConnection>();
-            time = System.currentTimeMillis();
-            synchronized (reqConnections) {
-                if (maxReqTime != -1) {
-                    for (HttpConnection c : reqConnections) {
-                        if (c.creationTime + timerMillis + maxReqTime <= time) {
-                            toClose.add(c);
-                        }
-                    }
-                    for (HttpConnection c : toClose) {
-                        logger.log(Level.FINE, "closing: no request: " + c);
-                        reqConnections.remove(c);
-                        allConnections.remove(c);
-                        c.close();
-                    }
-                }
-            }
-            toClose = new LinkedList<>();
-            synchronized (rspConnections) {
-                if (maxRspTime != -1) {
-                    for (HttpConnection c : rspConnections) {
-                        if (c.rspStartedTime + timerMillis + maxRspTime <= time) {
-                            toClose.add(c);
-                        }
-                    }
-                    for (HttpConnection c : toClose) {
-                        logger.log(Level.FINE, "closing: no response: " + c);
-                        rspConnections.remove(c);
-                        allConnections.remove(c);
-                        c.close();
-                    }
-                }
-            }
-        }
+        timerWheel.cancel(c.timeout);
+        c.setState(State.RESPONSE, State.IDLE);
     }
 
     void logStackTrace(String s) {
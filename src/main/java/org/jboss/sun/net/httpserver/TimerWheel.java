@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2005, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.jboss.sun.net.httpserver;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timing wheel which implements the idle, request and response
+ * timeouts of the connections, and keeps the server's clock.
+ * <p>
+ * Each bucket holds the timeouts which expire in one tick. Timeouts
+ * further away than one turn of the wheel stay in their bucket and are
+ * looked at again once per turn. Arming or cancelling a timeout only
+ * writes its deadline; it is queued for the timer thread when it must
+ * fire earlier than the bucket it is in. A timeout that has been pushed
+ * further away moves to its new bucket when the old one comes up.
+ * The buckets are only touched by the timer thread.
+ */
+class TimerWheel implements Runnable, TimeSource {
+
+    /**
+     * a timeout which can be armed, re-armed and cancelled from any
+     * thread in constant time
+     */
+    abstract static class Timeout {
+
+        private static final AtomicLongFieldUpdater<Timeout> DEADLINE =
+                AtomicLongFieldUpdater.newUpdater(Timeout.class, "deadline");
+
+        /* absolute deadline in ms, 0 if not armed */
+        private volatile long deadline;
+        /* time at which the bucket holding this timeout is processed, 0 if none */
+        private volatile long scheduled;
+        /* bucket links, timer thread only */
+        private Timeout prev, next;
+        private int slot = -1;
+
+        /**
+         * called on the timer thread when the deadline has passed
+         */
+        abstract void expired();
+    }
+
+    private final Logger logger;
+    private final long tickMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private volatile long now;
+    private volatile long ticks;
+    private volatile boolean finished;
+    private Thread thread;
+    /* the next tick to process, timer thread only */
+    private long nextTick;
+
+    /**
+     * @param tickMillis the resolution of the wheel
+     * @param size the number of buckets, rounded up to a power of two
+     */
+    TimerWheel(Logger logger, long tickMillis, int size) {
+        this.logger = logger;
+        this.tickMillis = Math.max(1, tickMillis);
+        int n = 1;
+        while (n < size) {
+            n <<= 1;
+        }
+        buckets = new Timeout[n];
+        mask = n - 1;
+        now = System.currentTimeMillis();
+        nextTick = tickOf(now) + 1;
+    }
+
+    void start() {
+        thread = new Thread(this, "HTTP-Timer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        finished = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * the current time, as of the last tick
+     */
+    @Override
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * number of ticks since the wheel was started
+     */
+    long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * arms t to expire after delay ms, replacing any earlier deadline
+     */
+    void schedule(Timeout t, long delay) {
+        long d = System.currentTimeMillis() + delay;
+        t.deadline = d;
+        /* moving further away is picked up when the current bucket is processed */
+        long s = t.scheduled;
+        if (s == 0 || d <= s - tickMillis) {
+            incoming.offer(t);
+        }
+    }
+
+    /**
+     * disarms t. It is dropped from its bucket when the bucket is processed
+     */
+    void cancel(Timeout t) {
+        t.deadline = 0;
+    }
+
+    @Override
+    public void run() {
+        while (!finished) {
+            long time = System.currentTimeMillis();
+            long wait = nextTick * tickMillis - time;
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                time = System.currentTimeMillis();
+            }
+            now = time;
+            ticks++;
+            Timeout t;
+            while ((t = incoming.poll()) != null) {
+                place(t);
+            }
+            long last = tickOf(time);
+            while (nextTick <= last) {
+                long k = nextTick++;
+                expire(k);
+            }
+        }
+    }
+
+    private long tickOf(long time) {
+        return (time + tickMillis - 1) / tickMillis;
+    }
+
+    private void expire(long k) {
+        Timeout t = buckets[(int) (k & mask)];
+        while (t != null) {
+            Timeout n = t.next;
+            long d = t.deadline;
+            if (d != 0 && tickOf(d) <= k) {
+                unlink(t);
+                /* cleared first, so that a concurrent schedule() queues t again */
+                t.scheduled = 0;
+                if (Timeout.DEADLINE.compareAndSet(t, d, 0)) {
+                    try {
+                        t.expired();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.FINER, "TimerWheel", e);
+                    }
+                } else {
+                    place(t);
+                }
+            } else {
+                place(t);
+            }
+            t = n;
+        }
+    }
+
+    /**
+     * (re)links t in the bucket matching its current deadline,
+     * or unlinks it if it is not armed
+     */
+    private void place(Timeout t) {
+        for (;;) {
+            long d = t.deadline;
+            if (d == 0) {
+                if (t.slot >= 0) {
+                    unlink(t);
+                }
+                t.scheduled = 0;
+                if (t.deadline == 0) {
+                    return;
+                }
+                continue;
+            }
+            long k = Math.max(tickOf(d), nextTick);
+            long s = k * tickMillis;
+            if (t.slot >= 0) {
+                if (t.scheduled == s) {
+                    return;
+                }
+                unlink(t);
+            }
+            link(t, (int) (k & mask));
+            t.scheduled = s;
+            /* re-read: a schedule() which saw the old bucket did not queue t */
+            d = t.deadline;
+            if (d == 0 || Math.max(tickOf(d), nextTick) >= k) {
+                return;
+            }
+        }
+    }
+
+    private void link(Timeout t, int slot) {
+        Timeout head = buckets[slot];
+        t.prev = null;
+        t.next = head;
+        if (head != null) {
+            head.prev = t;
+        }
+        buckets[slot] = t;
+        t.slot = slot;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            buckets[t.slot] = t.next;
+        }
+        if (t.next != null) {
+            t.next.prev = t.prev;
+        }
+        t.prev = t.next = null;
+        t.slot = -1;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary connections keep their data intact while their I/O buffers
+ *          go back to the pool between requests, and closed connections
+ *          give their buffers back too
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class BufferPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 50);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                /* echoes the body, or else the X-Fill header repeated */
+                byte[] body = read(t.getRequestBody());
+                if (body.length == 0) {
+                    String fill = t.getRequestHeaders().getFirst("X-Fill");
+                    int n = Integer.parseInt(t.getRequestHeaders().getFirst("X-Count"));
+                    ByteArrayOutputStream bo = new ByteArrayOutputStream();
+                    for (int i = 0; i < n; i++) {
+                        bo.write(fill.getBytes("ISO8859_1"));
+                    }
+                    body = bo.toByteArray();
+                }
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+        final int port = server.getAddress().getPort();
+        ExecutorService ex = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> fs = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                final int k = i;
+                fs.add(ex.submit(new java.util.concurrent.Callable<Void>() {
+                    public Void call() throws Exception {
+                        client(port, k);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : fs) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            closing(port);
+            System.out.println("OK");
+        } finally {
+            ex.shutdown();
+            server.stop(0);
+        }
+    }
+
+    static void client(int port, int k) throws Exception {
+        Socket s = new Socket("localhost", port);
+        s.setSoTimeout(10000);
+        OutputStream os = s.getOutputStream();
+        InputStream is = s.getInputStream();
+        for (int i = 0; i < 20; i++) {
+            /* short and long heads, small and large responses */
+            String fill = "k" + k + "i" + i + "-";
+            int headFill = i % 3 == 0 ? 40 : 1;
+            int count = i % 2 == 0 ? 5 : 20000;
+            StringBuilder sb = new StringBuilder("GET /x HTTP/1.1\r\nHost: x\r\nX-Count: " + count + "\r\n");
+            sb.append("X-Fill: ").append(fill).append("\r\n");
+            for (int j = 0; j < headFill; j++) {
+                sb.append("X-Pad").append(j).append(": ");
+                for (int m = 0; m < 50; m++) {
+                    sb.append(fill);
+                }
+                sb.append("\r\n");
+            }
+            sb.append("\r\n");
+            os.write(sb.toString().getBytes("ISO8859_1"));
+            os.flush();
+            byte[] body = response(is);
+            byte[] expected = new byte[fill.length() * count];
+            for (int j = 0; j < count; j++) {
+                System.arraycopy(fill.getBytes("ISO8859_1"), 0, expected, j * fill.length(), fill.length());
+            }
+            if (!Arrays.equals(body, expected)) {
+                throw new RuntimeException("client " + k + " request " + i + ": wrong body");
+            }
+            /* let the connection go idle */
+            Thread.sleep(5);
+            byte[] post = new byte[30000 + i];
+            Arrays.fill(post, (byte) ('a' + k));
+            os.write(("POST /x HTTP/1.1\r\nHost: x\r\nContent-Length: " + post.length + "\r\n\r\n").getBytes("ISO8859_1"));
+            os.write(post);
+            os.flush();
+            if (!Arrays.equals(response(is), post)) {
+                throw new RuntimeException("client " + k + " post " + i + ": wrong body");
+            }
+        }
+        s.close();
+    }
+
+    /* the buffers of connections closed after their response are reused */
+    static void closing(int port) throws Exception {
+        long before = directBuffers();
+        for (int i = 0; i < 200; i++) {
+            Socket s = new Socket("localhost", port);
+            s.setSoTimeout(10000);
+            OutputStream os = s.getOutputStream();
+            os.write("GET /x HTTP/1.1\r\nHost: x\r\nX-Count: 5\r\nX-Fill: c\r\nConnection: close\r\n\r\n"
+                    .getBytes("ISO8859_1"));
+            os.flush();
+            response(s.getInputStream());
+            s.close();
+        }
+        long allocated = directBuffers() - before;
+        System.out.println(allocated + " direct buffers allocated for 200 closed connections");
+        /* each slab holds 16 buffers, a lost pair per connection needs 25 slabs */
+        if (allocated > 6) {
+            throw new RuntimeException("buffers of closed connections not reused: " + allocated + " allocations");
+        }
+    }
+
+    static long directBuffers() {
+        for (BufferPoolMXBean b : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (b.getName().equals("direct")) {
+                return b.getCount();
+            }
+        }
+        throw new RuntimeException("no direct buffer pool");
+    }
+
+    /* reads a response with a Content-length, returns its body */
+    static byte[] response(InputStream is) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int c = is.read();
+            if (c == -1) {
+                throw new IOException("unexpected end of stream");
+            }
+            head.append((char) c);
+        }
+        String h = head.toString().toLowerCase();
+        int i = h.indexOf("content-length:");
+        int len = Integer.parseInt(h.substring(i + 15, h.indexOf("\r\n", i)).trim());
+        byte[] b = new byte[len];
+        int off = 0;
+        while (off < len) {
+            int n = is.read(b, off, len - off);
+            if (n == -1) {
+                throw new IOException("unexpected end of stream");
+            }
+            off += n;
+        }
+        return b;
+    }
+
+    static byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        int n;
+        while ((n = is.read(b)) != -1) {
+            bo.write(b, 0, n);
+        }
+        is.close();
+        return bo.toByteArray();
+    }
+}
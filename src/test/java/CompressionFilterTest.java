@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary CompressionFilter negotiation, framing and counters
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.jboss.com.sun.net.httpserver.CompressionFilter;
+import org.jboss.com.sun.net.httpserver.HttpContext;
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+import org.jboss.com.sun.net.httpserver.StaticFileHandler;
+
+public class CompressionFilterTest {
+
+    static final byte[] data = new byte[100000];
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        Path root = Files.createTempDirectory("compression");
+        Files.write(root.resolve("data.txt"), data);
+
+        CompressionFilter filter = new CompressionFilter(6, 1000);
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        HttpContext ctx = server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                t.getRequestBody().close();
+                String q = t.getRequestURI().getQuery();
+                byte[] body = q.contains("small") ? Arrays.copyOf(data, 100) : data;
+                t.getResponseHeaders().set("Content-Type", q.contains("png") ? "image/png" : "text/plain");
+                t.getResponseHeaders().set("ETag", "\"abc\"");
+                t.sendResponseHeaders(200, q.contains("chunked") ? 0 : body.length);
+                OutputStream os = t.getResponseBody();
+                for (int i = 0; i < body.length; i += 1000) {
+                    os.write(body, i, Math.min(1000, body.length - i));
+                }
+                os.close();
+            }
+        });
+        ctx.getFilters().add(filter);
+        server.createContext("/static", new StaticFileHandler(root, 0)).getFilters().add(filter);
+        server.start();
+        String base = "http://localhost:" + server.getAddress().getPort();
+        try {
+            for (int i = 0; i < 3; i++) {
+                HttpURLConnection c = open(base + "/?fixed", "gzip, deflate");
+                check("gzip".equals(c.getHeaderField("Content-Encoding")), "gzip");
+                check("Accept-Encoding".equals(c.getHeaderField("Vary")), "vary");
+                check("\"abc-gzip\"".equals(c.getHeaderField("ETag")), "etag");
+                check(c.getHeaderField("Content-Length") == null, "no length");
+                byte[] b = read(c.getInputStream());
+                check(b.length < data.length / 10, "compressed " + b.length);
+                check(Arrays.equals(read(new GZIPInputStream(new ByteArrayInputStream(b))), data), "gzip body");
+            }
+            HttpURLConnection c = open(base + "/?chunked", "deflate");
+            check("deflate".equals(c.getHeaderField("Content-Encoding")), "deflate");
+            check(Arrays.equals(read(new InflaterInputStream(c.getInputStream())), data), "deflate body");
+
+            c = open(base + "/?fixed", null);
+            check(c.getHeaderField("Content-Encoding") == null, "identity");
+            check("Accept-Encoding".equals(c.getHeaderField("Vary")), "identity vary");
+            check(c.getContentLengthLong() == data.length, "identity length");
+            check(Arrays.equals(read(c.getInputStream()), data), "identity body");
+
+            c = open(base + "/?small", "gzip");
+            check(c.getHeaderField("Content-Encoding") == null, "small");
+            check(read(c.getInputStream()).length == 100, "small body");
+
+            c = open(base + "/?png", "gzip");
+            check(c.getHeaderField("Content-Encoding") == null, "png");
+            check(c.getHeaderField("Vary") == null, "png vary");
+            check(read(c.getInputStream()).length == data.length, "png body");
+
+            c = open(base + "/static/data.txt", "gzip");
+            check("gzip".equals(c.getHeaderField("Content-Encoding")), "file gzip");
+            check(Arrays.equals(read(new GZIPInputStream(c.getInputStream())), data), "file body");
+
+            c = open(base + "/static/data.txt", "gzip");
+            c.setRequestProperty("Range", "bytes=0-9");
+            check(c.getResponseCode() == 206 && c.getHeaderField("Content-Encoding") == null, "range");
+            check(read(c.getInputStream()).length == 10, "range body");
+
+            check(filter.getCompressedResponses() == 5, "responses " + filter.getCompressedResponses());
+            check(filter.getBytesIn() == 5L * data.length, "bytes in " + filter.getBytesIn());
+            check(filter.getBytesSaved() > 0 && filter.getBytesOut() < filter.getBytesIn(), "saved");
+            System.out.println("saved " + filter.getBytesSaved() + " bytes");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static HttpURLConnection open(String url, String accept) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setReadTimeout(10000);
+        if (accept != null) {
+            c.setRequestProperty("Accept-Encoding", accept);
+        }
+        return c;
+    }
+
+    static byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        int n;
+        while ((n = is.read(b)) != -1) {
+            bo.write(b, 0, n);
+        }
+        is.close();
+        return bo.toByteArray();
+    }
+
+    static void check(boolean b, String msg) {
+        if (!b) {
+            throw new RuntimeException("failed: " + msg);
+        }
+    }
+}
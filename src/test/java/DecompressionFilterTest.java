@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary DecompressionFilter inflates gzip and deflate request bodies
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jboss.com.sun.net.httpserver.DecompressionFilter;
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class DecompressionFilterTest {
+
+    public static void main(String[] args) throws Exception {
+        byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + (i * 7) % 26);
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                byte[] body;
+                int code = 200;
+                try {
+                    body = read(t.getRequestBody());
+                } catch (IOException e) {
+                    body = e.getMessage().getBytes("ISO8859_1");
+                    code = 500;
+                }
+                if (t.getRequestHeaders().getFirst("Content-Encoding") != null) {
+                    code = 500;
+                }
+                t.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        }).getFilters().add(new DecompressionFilter(500000));
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/";
+        try {
+            byte[] gz = gzip(data);
+            /* two members */
+            byte[] twice = new byte[2 * gz.length];
+            System.arraycopy(gz, 0, twice, 0, gz.length);
+            System.arraycopy(gz, 0, twice, gz.length, gz.length);
+            for (int chunked = 0; chunked < 2; chunked++) {
+                check(Arrays.equals(post(url, "gzip", gz, chunked == 1), data), "gzip " + chunked);
+                byte[] b = post(url, "gzip", twice, chunked == 1);
+                check(b.length == 2 * data.length
+                        && Arrays.equals(Arrays.copyOfRange(b, data.length, b.length), data), "members");
+                check(Arrays.equals(post(url, "deflate", deflate(data, false), chunked == 1), data), "zlib");
+                check(Arrays.equals(post(url, "deflate", deflate(data, true), chunked == 1), data), "raw deflate");
+            }
+            check(Arrays.equals(post(url, null, data, false), data), "identity");
+
+            byte[] bomb = gzip(new byte[1000000]);
+            check(bomb.length < 5000, "bomb " + bomb.length);
+            HttpURLConnection c = connect(url, "gzip", bomb, false);
+            check(c.getResponseCode() == 500, "limit");
+
+            gz[gz.length - 5] ^= 1;
+            c = connect(url, "gzip", gz, false);
+            check(c.getResponseCode() == 500, "trailer");
+
+            c = connect(url, "br", data, false);
+            check(c.getResponseCode() == 415, "415");
+            System.out.println("OK");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static byte[] gzip(byte[] b) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        GZIPOutputStream os = new GZIPOutputStream(bo);
+        os.write(b);
+        os.close();
+        return bo.toByteArray();
+    }
+
+    static byte[] deflate(byte[] b, boolean nowrap) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        DeflaterOutputStream os = new DeflaterOutputStream(bo, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+        os.write(b);
+        os.close();
+        return bo.toByteArray();
+    }
+
+    static HttpURLConnection connect(String url, String coding, byte[] body, boolean chunked) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setReadTimeout(10000);
+        c.setDoOutput(true);
+        if (coding != null) {
+            c.setRequestProperty("Content-Encoding", coding);
+        }
+        if (chunked) {
+            c.setChunkedStreamingMode(1000);
+        } else {
+            c.setFixedLengthStreamingMode(body.length);
+        }
+        OutputStream os = c.getOutputStream();
+        os.write(body);
+        os.close();
+        return c;
+    }
+
+    static byte[] post(String url, String coding, byte[] body, boolean chunked) throws IOException {
+        HttpURLConnection c = connect(url, coding, body, chunked);
+        check(c.getResponseCode() == 200, "code " + c.getResponseCode());
+        return read(c.getInputStream());
+    }
+
+    static byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        int n;
+        while ((n = is.read(b)) != -1) {
+            bo.write(b, 0, n);
+        }
+        is.close();
+        return bo.toByteArray();
+    }
+
+    static void check(boolean b, String msg) {
+        if (!b) {
+            throw new RuntimeException("failed: " + msg);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary a handler blocked in the default executor must not stall other exchanges
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class DefaultExecutorTest {
+
+    static final CountDownLatch release = new CountDownLatch(1);
+    static final CountDownLatch blocked = new CountDownLatch(1);
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("virtual threads supported: " + HttpServer.isVirtualThreadSupported());
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        server.createContext("/slow", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                drain(t);
+                blocked.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                reply(t);
+            }
+        });
+        server.createContext("/fast", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                drain(t);
+                reply(t);
+            }
+        });
+        server.start();
+        final String urlStr = "http://localhost:" + server.getAddress().getPort() + "/";
+        try {
+            Thread slow = new Thread() {
+                public void run() {
+                    try {
+                        get(urlStr + "slow");
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            slow.start();
+            if (!blocked.await(10, TimeUnit.SECONDS)) {
+                throw new RuntimeException("slow handler was never called");
+            }
+            /* these time out if they queue up behind the slow handler */
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 10; i++) {
+                get(urlStr + "fast");
+            }
+            System.out.println("fast requests took " + (System.currentTimeMillis() - start) + " ms");
+            release.countDown();
+            slow.join(10000);
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    static void drain(HttpExchange t) throws IOException {
+        InputStream is = t.getRequestBody();
+        while (is.read() != -1) ;
+        is.close();
+    }
+
+    static void reply(HttpExchange t) throws IOException {
+        byte[] body = "hello".getBytes("ISO8859_1");
+        t.sendResponseHeaders(200, body.length);
+        OutputStream os = t.getResponseBody();
+        os.write(body);
+        os.close();
+    }
+
+    static void get(String urlStr) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
+        conn.setReadTimeout(10000);
+        if (conn.getResponseCode() != 200) {
+            throw new RuntimeException("unexpected response: " + conn.getResponseCode());
+        }
+        InputStream is = conn.getInputStream();
+        while (is.read() != -1) ;
+        is.close();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary FileCache eviction and change detection, and HttpExchange.sendResponse
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.jboss.com.sun.net.httpserver.FileCache;
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+import org.jboss.com.sun.net.httpserver.StaticFileHandler;
+
+public class FileCacheTest {
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("filecache");
+        byte[] data = new byte[6000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        for (int i = 0; i < 4; i++) {
+            Files.write(root.resolve("f" + i), data);
+        }
+        Files.write(root.resolve("big"), new byte[20000]);
+
+        final FileCache cache = new FileCache(15000, 10000, 0);
+        check(cache.get(root.resolve("big")) == null, "too large");
+        check(cache.get(root.resolve("missing")) == null, "missing");
+        for (int i = 0; i < 4; i++) {
+            ByteBuffer buf = cache.get(root.resolve("f" + i));
+            check(buf.isReadOnly() && buf.remaining() == data.length, "contents");
+        }
+        check(cache.getSize() == 12000, "eviction " + cache.getSize());
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        server.createContext("/static", new StaticFileHandler(root, 0, cache));
+        server.createContext("/buffer", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                t.getRequestBody().close();
+                t.sendResponse(200, direct);
+            }
+        });
+        server.start();
+        String base = "http://localhost:" + server.getAddress().getPort();
+        try {
+            for (int i = 0; i < 3; i++) {
+                check(Arrays.equals(read(open(base + "/buffer")), data), "buffer");
+            }
+            check(direct.position() == 0 && direct.remaining() == data.length, "buffer unchanged");
+
+            check(Arrays.equals(read(open(base + "/static/f0")), data), "cached file");
+            HttpURLConnection c = open(base + "/static/f0");
+            c.setRequestProperty("Range", "bytes=100-199");
+            check(c.getResponseCode() == 206, "206");
+            check(Arrays.equals(read(c), Arrays.copyOfRange(data, 100, 200)), "range");
+
+            /* a changed file is read again */
+            Path f0 = root.resolve("f0");
+            Files.write(f0, "changed".getBytes("ISO8859_1"));
+            Files.setLastModifiedTime(f0, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+            check(new String(read(open(base + "/static/f0")), "ISO8859_1").equals("changed"), "changed");
+            check(read(open(base + "/static/big")).length == 20000, "uncached file");
+            System.out.println("OK");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setReadTimeout(10000);
+        return c;
+    }
+
+    static byte[] read(HttpURLConnection c) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        InputStream is = c.getInputStream();
+        byte[] b = new byte[8192];
+        int n;
+        while ((n = is.read(b)) != -1) {
+            bo.write(b, 0, n);
+        }
+        is.close();
+        return bo.toByteArray();
+    }
+
+    static void check(boolean b, String msg) {
+        if (!b) {
+            throw new RuntimeException("failed: " + msg);
+        }
+    }
+}
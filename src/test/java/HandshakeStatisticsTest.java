@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary counters of the TLS handshakes run with the handshake executor,
+ *          a rejected handshake is not counted as failed as well
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import org.jboss.com.sun.net.httpserver.HandshakeStatistics;
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpsConfigurator;
+import org.jboss.com.sun.net.httpserver.HttpsServer;
+
+public class HandshakeStatisticsTest {
+
+    public static void main(String[] args) throws Exception {
+        /* a handshake for every request */
+        System.setProperty("http.keepAlive", "false");
+        SSLContext ssl = new SimpleSSLContext(System.getProperty("test.src")).get();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("sun.net.httpserver.handshakeThreads", "1");
+        config.put("sun.net.httpserver.maxQueuedHandshakes", "16");
+        HttpsServer server = HttpsServer.create(new InetSocketAddress(0), 50, config);
+        server.createContext("/test", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                is.close();
+                byte[] body = Thread.currentThread().getName().getBytes("ISO8859_1");
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.setHttpsConfigurator(new HttpsConfigurator(ssl));
+        server.start();
+        int port = server.getAddress().getPort();
+        try {
+            HandshakeStatistics stats = server.getHandshakeStatistics();
+            if (stats == null) {
+                throw new RuntimeException("no statistics");
+            }
+            for (int i = 0; i < 3; i++) {
+                URL url = new URL("https://localhost:" + port + "/test/foo.html");
+                HttpsURLConnection urlc = (HttpsURLConnection) url.openConnection();
+                urlc.setSSLSocketFactory(ssl.getSocketFactory());
+                urlc.setHostnameVerifier(new DummyVerifier());
+                urlc.setReadTimeout(10000);
+                if (urlc.getResponseCode() != 200) {
+                    throw new RuntimeException("unexpected response: " + urlc.getResponseCode());
+                }
+                InputStream is = urlc.getInputStream();
+                StringBuilder sb = new StringBuilder();
+                int c;
+                while ((c = is.read()) != -1) {
+                    sb.append((char) c);
+                }
+                is.close();
+                if (sb.toString().startsWith("HTTP-Handshake")) {
+                    throw new RuntimeException("handler run by a handshake thread");
+                }
+            }
+            /* a client which is not speaking TLS */
+            Socket s = new Socket("localhost", port);
+            s.getOutputStream().write("GET / HTTP/1.1\r\nHost: x\r\n\r\n".getBytes("ISO8859_1"));
+            s.setSoTimeout(10000);
+            InputStream in = s.getInputStream();
+            while (in.read() != -1) ;
+            s.close();
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((stats.getFailedHandshakes() < 1 || stats.getActiveHandshakes() != 0)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            System.out.println("completed " + stats.getCompletedHandshakes()
+                    + ", failed " + stats.getFailedHandshakes()
+                    + ", active " + stats.getActiveHandshakes()
+                    + ", handshake time " + stats.getTotalHandshakeTime()
+                    + " ms, queue time " + stats.getTotalQueueTime()
+                    + " ms, task time " + stats.getTotalTaskTime() + " ms");
+            if (stats.getCompletedHandshakes() != 3) {
+                throw new RuntimeException("completed handshakes: " + stats.getCompletedHandshakes());
+            }
+            if (stats.getFailedHandshakes() != 1 || stats.getRejectedHandshakes() != 0) {
+                throw new RuntimeException("failed handshakes: " + stats.getFailedHandshakes());
+            }
+            if (stats.getActiveHandshakes() != 0 || stats.getQueuedTasks() != 0) {
+                throw new RuntimeException("handshakes left: " + stats.getActiveHandshakes());
+            }
+        } finally {
+            server.stop(0);
+        }
+        burst(ssl);
+        System.out.println("OK");
+    }
+
+    /* more handshakes at once than the executor queues, each counted once */
+    static void burst(final SSLContext ssl) throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("sun.net.httpserver.handshakeThreads", "1");
+        config.put("sun.net.httpserver.maxQueuedHandshakes", "1");
+        HttpsServer server = HttpsServer.create(new InetSocketAddress(0), 100, config);
+        server.setHttpsConfigurator(new HttpsConfigurator(ssl));
+        server.start();
+        final int port = server.getAddress().getPort();
+        try {
+            HandshakeStatistics stats = server.getHandshakeStatistics();
+            List<Thread> clients = new ArrayList<Thread>();
+            for (int i = 0; i < CLIENTS; i++) {
+                Thread t = new Thread() {
+                    public void run() {
+                        try {
+                            SSLSocket s = (SSLSocket) ssl.getSocketFactory().createSocket("localhost", port);
+                            s.setSoTimeout(10000);
+                            try {
+                                s.startHandshake();
+                            } finally {
+                                s.close();
+                            }
+                        } catch (IOException e) {
+                        }
+                    }
+                };
+                t.start();
+                clients.add(t);
+            }
+            for (Thread t : clients) {
+                t.join();
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (stats.getActiveHandshakes() != 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            long completed = stats.getCompletedHandshakes();
+            long failed = stats.getFailedHandshakes();
+            long rejected = stats.getRejectedHandshakes();
+            System.out.println("burst: completed " + completed + ", failed " + failed + ", rejected " + rejected);
+            if (completed + failed + rejected != CLIENTS || stats.getActiveHandshakes() != 0) {
+                throw new RuntimeException("handshakes counted: " + (completed + failed + rejected));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static final int CLIENTS = 40;
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary TLS handshakes are driven by the dispatcher, so clients which
+ *          stall during the handshake do not hold on to worker threads
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpsConfigurator;
+import org.jboss.com.sun.net.httpserver.HttpsServer;
+
+public class HandshakeTest {
+
+    static final int STALLED = 20;
+    static final AtomicInteger handled = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        SSLContext ssl = new SimpleSSLContext(System.getProperty("test.src")).get();
+        HttpsServer server = HttpsServer.create(new InetSocketAddress(0), 50);
+        server.createContext("/test", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                handled.incrementAndGet();
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                is.close();
+                byte[] body = "hello".getBytes("ISO8859_1");
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        /* fewer threads than stalled clients */
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        server.setExecutor(executor);
+        server.setHttpsConfigurator(new HttpsConfigurator(ssl));
+        server.start();
+        int port = server.getAddress().getPort();
+        List<Socket> stalled = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < STALLED; i++) {
+                Socket s = new Socket("localhost", port);
+                if (i % 2 == 0) {
+                    /* the start of a TLS record, the rest never comes */
+                    s.getOutputStream().write(new byte[] {0x16, 0x03, 0x01, 0x02, 0x00, 0x01});
+                    s.getOutputStream().flush();
+                }
+                stalled.add(s);
+            }
+            Thread.sleep(500);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 5; i++) {
+                URL url = new URL("https://localhost:" + port + "/test/foo.html");
+                HttpsURLConnection urlc = (HttpsURLConnection) url.openConnection();
+                urlc.setSSLSocketFactory(ssl.getSocketFactory());
+                urlc.setHostnameVerifier(new DummyVerifier());
+                urlc.setReadTimeout(10000);
+                if (urlc.getResponseCode() != 200) {
+                    throw new RuntimeException("unexpected response: " + urlc.getResponseCode());
+                }
+                InputStream is = urlc.getInputStream();
+                while (is.read() != -1) ;
+                is.close();
+            }
+            System.out.println("requests took " + (System.currentTimeMillis() - start) + " ms");
+            if (handled.get() != 5) {
+                throw new RuntimeException("handler called " + handled.get() + " times");
+            }
+            System.out.println("OK");
+        } finally {
+            for (Socket s : stalled) {
+                s.close();
+            }
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary Headers behaves as a map with case-insensitive, normalized keys
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jboss.com.sun.net.httpserver.Headers;
+
+public class HeadersTest {
+
+    static final String[] NAMES = {
+            "Content-Length", "content-length", "CONTENT-TYPE", "Host", "x-custom",
+            "X-Custom", "Accept", "date", "Via", "a", "A", ""
+    };
+
+    public static void main(String[] args) throws Exception {
+        Headers h = new Headers();
+        h.add("content-type", "text/plain");
+        h.add("Content-Type", "text/html");
+        h.set("X-FOO", "1");
+        check(h.getFirst("CONTENT-type").equals("text/plain"), "getFirst");
+        check(h.get("content-TYPE").equals(Arrays.asList("text/plain", "text/html")), "get");
+        check(h.keySet().contains("Content-type") && h.keySet().contains("X-foo"), "normalized keys");
+        check(h.containsKey("x-foo") && !h.containsKey("x-bar"), "containsKey");
+        check(h.remove("X-Foo").equals(Arrays.asList("1")) && h.size() == 1, "remove");
+        h.put(null, null);
+        check(h.containsValue(null) && h.size() == 2, "null key");
+
+        /* compare with a HashMap over normalized keys */
+        Random r = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            Headers headers = new Headers();
+            Map<String, List<String>> ref = new HashMap<String, List<String>>();
+            for (int op = 0; op < 50; op++) {
+                String name = NAMES[r.nextInt(NAMES.length)];
+                String key = normalize(name);
+                String value = "v" + r.nextInt(5);
+                switch (r.nextInt(6)) {
+                    case 0:
+                    case 1:
+                        headers.add(name, value);
+                        if (!ref.containsKey(key)) {
+                            ref.put(key, new ArrayList<String>());
+                        }
+                        ref.get(key).add(value);
+                        break;
+                    case 2:
+                        headers.set(name, value);
+                        ref.put(key, new ArrayList<String>(Arrays.asList(value)));
+                        break;
+                    case 3:
+                        check(eq(headers.remove(name), ref.remove(key)), "remove " + name);
+                        break;
+                    case 4: {
+                        Iterator<Map.Entry<String, List<String>>> i = headers.entrySet().iterator();
+                        while (i.hasNext()) {
+                            if (i.next().getKey().equals(key)) {
+                                i.remove();
+                                ref.remove(key);
+                            }
+                        }
+                        break;
+                    }
+                    default:
+                        List<String> l = ref.get(key);
+                        check(eq(headers.getFirst(name), l == null ? null : l.get(0)), "getFirst " + name);
+                        break;
+                }
+                check(headers.equals(ref) && ref.equals(headers), "equals " + headers.entrySet() + " " + ref);
+                check(headers.hashCode() == ref.hashCode(), "hashCode");
+                check(headers.size() == ref.size() && headers.keySet().equals(ref.keySet()), "keySet");
+            }
+        }
+        System.out.println("OK");
+    }
+
+    static String normalize(String key) {
+        if (key.length() == 0) {
+            return key;
+        }
+        return key.substring(0, 1).toUpperCase() + key.substring(1).toLowerCase();
+    }
+
+    static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static void check(boolean ok, String msg) {
+        if (!ok) {
+            throw new RuntimeException("failed: " + msg);
+        }
+    }
+}
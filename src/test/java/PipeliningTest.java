@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary pipelined requests are handled concurrently and answered in order
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class PipeliningTest {
+
+    static final int REQUESTS = 10;
+    static final int DELAY = 200;
+
+    public static void main(String[] args) throws Exception {
+        test(1);
+        long elapsed = test(16);
+        /* one after the other, they would take REQUESTS * DELAY / 2 */
+        if (elapsed > REQUESTS * DELAY / 2) {
+            throw new RuntimeException("pipelined requests not handled concurrently: " + elapsed + " ms");
+        }
+        testReject();
+        testLarge();
+        testThrow();
+    }
+
+    static HttpServer createServer(int maxPipelined) throws IOException {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("sun.net.httpserver.maxPipelinedRequests", Integer.toString(maxPipelined));
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5, config);
+        server.createContext("/p", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                String path = t.getRequestURI().getPath();
+                int n = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+                /* the earlier requests finish last */
+                try {
+                    Thread.sleep(DELAY * (REQUESTS - n) / REQUESTS);
+                } catch (InterruptedException e) {
+                }
+                byte[] body = path.getBytes("ISO8859_1");
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    static long test(int maxPipelined) throws Exception {
+        HttpServer server = createServer(maxPipelined);
+        try {
+            Socket s = new Socket("localhost", server.getAddress().getPort());
+            s.setSoTimeout(10000);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < REQUESTS; i++) {
+                sb.append("GET /p/").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            }
+            long start = System.currentTimeMillis();
+            write(s, sb.toString());
+            InputStream is = s.getInputStream();
+            for (int i = 0; i < REQUESTS; i++) {
+                String response = readResponse(is);
+                if (!response.startsWith("HTTP/1.1 200") || !response.endsWith("/p/" + i)) {
+                    throw new RuntimeException("unexpected response " + i + ": " + response);
+                }
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            System.out.println("maxPipelinedRequests " + maxPipelined + ": " + elapsed + " ms");
+
+            /* the connection stays usable */
+            write(s, "GET /p/" + (REQUESTS - 1) + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            String response = readResponse(is);
+            if (!response.endsWith("/p/" + (REQUESTS - 1))) {
+                throw new RuntimeException("unexpected response: " + response);
+            }
+            s.close();
+            return elapsed;
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /* a rejected request closes the connection after the earlier responses */
+    static void testReject() throws Exception {
+        HttpServer server = createServer(16);
+        try {
+            Socket s = new Socket("localhost", server.getAddress().getPort());
+            s.setSoTimeout(10000);
+            write(s, "GET /p/0 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /none HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /p/5 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream is = s.getInputStream();
+            String response = readResponse(is);
+            if (!response.endsWith("/p/0")) {
+                throw new RuntimeException("unexpected response: " + response);
+            }
+            response = readHead(is);
+            if (!response.startsWith("HTTP/1.1 404")) {
+                throw new RuntimeException("unexpected response: " + response);
+            }
+            while (is.read() != -1) ;
+            s.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static final int LARGE = 1024 * 1024;
+    static volatile long slowDone, largeWritten;
+
+    /* a large response behind a slow one waits for its turn instead of being buffered */
+    static void testLarge() throws Exception {
+        HttpServer server = createServer(16);
+        server.createContext("/slow", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                try {
+                    Thread.sleep(DELAY);
+                } catch (InterruptedException e) {
+                }
+                byte[] body = "slow".getBytes("ISO8859_1");
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                slowDone = System.nanoTime();
+                os.close();
+            }
+        });
+        server.createContext("/large", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                t.sendResponseHeaders(200, LARGE);
+                OutputStream os = t.getResponseBody();
+                os.write(new byte[LARGE]);
+                largeWritten = System.nanoTime();
+                os.close();
+            }
+        });
+        try {
+            Socket s = new Socket("localhost", server.getAddress().getPort());
+            s.setSoTimeout(10000);
+            write(s, "GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /large HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream is = s.getInputStream();
+            String response = readResponse(is);
+            if (!response.endsWith("slow")) {
+                throw new RuntimeException("unexpected response: " + response);
+            }
+            response = readHead(is);
+            if (!response.startsWith("HTTP/1.1 200")) {
+                throw new RuntimeException("unexpected response: " + response);
+            }
+            byte[] b = new byte[8192];
+            int n = 0;
+            while (n < LARGE) {
+                int r = is.read(b, 0, Math.min(b.length, LARGE - n));
+                if (r == -1) {
+                    throw new RuntimeException("response too short: " + n);
+                }
+                n += r;
+            }
+            s.close();
+            if (largeWritten - slowDone < 0) {
+                throw new RuntimeException("large response buffered behind the slow one");
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /* a writer waiting behind a handler which throws is not left waiting */
+    static void testThrow() throws Exception {
+        HttpServer server = createServer(4);
+        final CountDownLatch returned = new CountDownLatch(1);
+        server.createContext("/throw", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                try {
+                    Thread.sleep(DELAY);
+                } catch (InterruptedException e) {
+                }
+                throw new RuntimeException("handler failed on purpose");
+            }
+        });
+        server.createContext("/after", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                try {
+                    t.sendResponseHeaders(200, LARGE);
+                    OutputStream os = t.getResponseBody();
+                    os.write(new byte[LARGE]);
+                    os.close();
+                } finally {
+                    returned.countDown();
+                }
+            }
+        });
+        try {
+            Socket s = new Socket("localhost", server.getAddress().getPort());
+            s.setSoTimeout(10000);
+            write(s, "GET /throw HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /after HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream is = s.getInputStream();
+            while (is.read() != -1) ;
+            s.close();
+            if (!returned.await(5, TimeUnit.SECONDS)) {
+                throw new RuntimeException("writer behind the failed handler still waiting");
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static void write(Socket s, String str) throws IOException {
+        OutputStream os = s.getOutputStream();
+        os.write(str.getBytes("ISO8859_1"));
+        os.flush();
+    }
+
+    static String readHead(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int crlf = 0;
+        while (crlf < 4) {
+            int c = is.read();
+            if (c == -1) {
+                throw new RuntimeException("connection closed: " + sb);
+            }
+            sb.append((char) c);
+            crlf = (c == '\r' || c == '\n') ? crlf + 1 : 0;
+        }
+        return sb.toString();
+    }
+
+    /* reads a response with a Content-length header */
+    static String readResponse(InputStream is) throws IOException {
+        String head = readHead(is);
+        int i = head.toLowerCase().indexOf("content-length: ");
+        int len = Integer.parseInt(head.substring(i + 16, head.indexOf('\r', i)));
+        StringBuilder sb = new StringBuilder(head);
+        for (int j = 0; j < len; j++) {
+            sb.append((char) is.read());
+        }
+        return sb.toString();
+    }
+}
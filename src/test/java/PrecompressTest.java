@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary StaticFileHandler sends precompressed .gz sidecar files
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.jboss.com.sun.net.httpserver.HttpServer;
+import org.jboss.com.sun.net.httpserver.StaticFileHandler;
+
+public class PrecompressTest {
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("precompress");
+        byte[] data = new byte[50000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        Path js = root.resolve("app.js");
+        Files.write(js, data);
+        Files.write(root.resolve("small.js"), "x".getBytes("ISO8859_1"));
+        Files.write(root.resolve("image.png"), data);
+
+        StaticFileHandler handler = new StaticFileHandler(root, 0);
+        int n = handler.precompress(100);
+        check(n == 1, "precompressed " + n);
+        check(Files.exists(root.resolve("app.js.gz")), "sidecar");
+        check(handler.precompress(100) == 0, "up to date");
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        server.createContext("/", handler);
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/app.js";
+        try {
+            HttpURLConnection c = open(url, null);
+            check("Accept-Encoding".equals(c.getHeaderField("Vary")), "vary");
+            check(c.getHeaderField("Content-Encoding") == null, "identity");
+            check(Arrays.equals(read(c), data), "identity body");
+            String etag = c.getHeaderField("ETag");
+
+            c = open(url, "deflate, gzip;q=0.5");
+            check("gzip".equals(c.getHeaderField("Content-Encoding")), "gzip");
+            check("Accept-Encoding".equals(c.getHeaderField("Vary")), "gzip vary");
+            check("application/javascript".equals(c.getHeaderField("Content-Type")), "gzip type");
+            check(!etag.equals(c.getHeaderField("ETag")), "gzip etag");
+            byte[] gz = read(c);
+            check(gz.length < data.length, "compressed");
+            check(Arrays.equals(gunzip(gz), data), "gzip body");
+
+            c = open(url, "gzip;q=0");
+            check(c.getHeaderField("Content-Encoding") == null, "q=0");
+            read(c);
+
+            /* a sidecar older than its file is not used */
+            Files.setLastModifiedTime(js, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+            c = open(url, "gzip");
+            check(c.getHeaderField("Content-Encoding") == null, "stale sidecar");
+            check(c.getHeaderField("Vary") == null, "stale vary");
+            check(Arrays.equals(read(c), data), "stale body");
+            System.out.println("OK");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static HttpURLConnection open(String url, String accept) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setReadTimeout(10000);
+        if (accept != null) {
+            c.setRequestProperty("Accept-Encoding", accept);
+        }
+        return c;
+    }
+
+    static byte[] gunzip(byte[] b) throws IOException {
+        return read(new GZIPInputStream(new ByteArrayInputStream(b)));
+    }
+
+    static byte[] read(HttpURLConnection c) throws IOException {
+        return read(c.getInputStream());
+    }
+
+    static byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        int n;
+        while ((n = is.read(b)) != -1) {
+            bo.write(b, 0, n);
+        }
+        is.close();
+        return bo.toByteArray();
+    }
+
+    static void check(boolean b, String msg) {
+        if (!b) {
+            throw new RuntimeException("failed: " + msg);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary request heads are parsed correctly when split across reads,
+ *          folded, larger than the read buffer or pipelined
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jboss.com.sun.net.httpserver.Headers;
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class RequestHeadTest {
+
+    static int port;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("sun.net.httpserver.maxReqHeaders", "20");
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5, config);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                int c;
+                while ((c = is.read()) != -1) {
+                    body.write(c);
+                }
+                Headers h = t.getRequestHeaders();
+                /* getFirst() before and after the headers become a map */
+                String reply = t.getRequestMethod() + " " + t.getRequestURI() + "|x-a=" + h.getFirst("X-a")
+                        + "|" + new TreeMap<String, List<String>>(h) + "|" + h.getFirst("x-A")
+                        + "|" + body.toString("ISO8859_1");
+                byte[] b = reply.getBytes("ISO8859_1");
+                t.sendResponseHeaders(200, b.length);
+                OutputStream os = t.getResponseBody();
+                os.write(b);
+                os.close();
+            }
+        });
+        server.start();
+        port = server.getAddress().getPort();
+        try {
+            check(exchange(1, "GET /a HTTP/1.1\r\nHost: x\r\nX-A: one\r\nx-a:  two \r\n\r\n"),
+                    "GET /a|x-a=one|{Host=[x], X-a=[one, two]}|one|");
+            check(exchange(1, "\r\n\r\nGET /b HTTP/1.1\nHost: x\nX-A:\tfolded\n\tline\n\n"),
+                    "GET /b|x-a=folded line|{Host=[x], X-a=[folded line]}|folded line|");
+            check(exchange(1, "POST /c HTTP/1.1\r\nHost: x\r\nContent-Length: 5\r\n\r\nhello"),
+                    "POST /c|x-a=null|{Content-length=[5], Host=[x]}|null|hello");
+
+            /* head written a byte at a time */
+            check(exchangeSlowly("GET /d HTTP/1.1\r\nHost: x\r\nX-A: slow\r\n\r\n"),
+                    "GET /d|x-a=slow|{Host=[x], X-a=[slow]}|slow|");
+
+            /* head bigger than the read buffer */
+            StringBuilder big = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                big.append("X-Big").append(i).append(": ");
+                for (int j = 0; j < 2000; j++) {
+                    big.append('v');
+                }
+                big.append("\r\n");
+            }
+            String r = exchange(1, "GET /e HTTP/1.1\r\nHost: x\r\n" + big + "X-A: big\r\n\r\n");
+            if (!r.startsWith("GET /e|x-a=big|")) {
+                throw new RuntimeException("big head: " + r);
+            }
+
+            /* two pipelined requests in one write */
+            String two = exchange(2, "GET /f HTTP/1.1\r\nX-A: 1\r\n\r\n"
+                    + "POST /g HTTP/1.1\r\nContent-Length: 2\r\nX-A: 2\r\n\r\nok");
+            check(two, "GET /f|x-a=1|{X-a=[1]}|1|" + "POST /g|x-a=2|{Content-length=[2], X-a=[2]}|2|ok");
+
+            /* too many headers: the connection is closed without a response */
+            StringBuilder many = new StringBuilder("GET /h HTTP/1.1\r\n");
+            for (int i = 0; i < 21; i++) {
+                many.append("X-").append(i).append(": v\r\n");
+            }
+            check(exchange(1, many + "\r\n"), "");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static void check(String got, String expected) {
+        System.out.println(got);
+        if (!got.equals(expected)) {
+            throw new RuntimeException("expected " + expected);
+        }
+    }
+
+    /* sends the requests, and returns the bodies of n responses */
+    static String exchange(int n, String requests) throws IOException {
+        Socket s = new Socket("localhost", port);
+        try {
+            s.setSoTimeout(10000);
+            s.getOutputStream().write(requests.getBytes("ISO8859_1"));
+            return readResponses(s.getInputStream(), n);
+        } finally {
+            s.close();
+        }
+    }
+
+    static String exchangeSlowly(String request) throws Exception {
+        Socket s = new Socket("localhost", port);
+        try {
+            s.setSoTimeout(10000);
+            s.setTcpNoDelay(true);
+            OutputStream os = s.getOutputStream();
+            for (byte b : request.getBytes("ISO8859_1")) {
+                os.write(b);
+                os.flush();
+                Thread.sleep(2);
+            }
+            return readResponses(s.getInputStream(), 1);
+        } finally {
+            s.close();
+        }
+    }
+
+    static String readResponses(InputStream is, int n) throws IOException {
+        StringBuilder bodies = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            int len = -1;
+            String line;
+            while ((line = readLine(is)) != null && line.length() > 0) {
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    len = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+            if (line == null) {
+                break;
+            }
+            for (int j = 0; j < len; j++) {
+                bodies.append((char) is.read());
+            }
+        }
+        return bodies.toString();
+    }
+
+    static String readLine(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = is.read()) != '\n') {
+            if (c == -1) {
+                return null;
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary request targets are routed and returned as before the URI was created lazily
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class RequestTargetTest {
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        HttpHandler handler = new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                /* asked for before the URI may have been created */
+                String path = t.getRequestPath();
+                URI uri = t.getRequestURI();
+                if (!path.equals(uri.getPath())) {
+                    path = "getRequestPath() returned " + path;
+                }
+                String s = t.getHttpContext().getPath() + " " + path + " " + uri.getRawQuery();
+                byte[] body = s.getBytes("UTF-8");
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        };
+        server.createContext("/", handler);
+        server.createContext("/ctx", handler);
+        server.createContext("/ctx/sub", handler);
+        server.start();
+        int port = server.getAddress().getPort();
+        try {
+            check(port, "/ctx", "200 /ctx /ctx null");
+            check(port, "/ctx/a?x=1&y=2", "200 /ctx /ctx/a x=1&y=2");
+            check(port, "/ctx/sub/b?q", "200 /ctx/sub /ctx/sub/b q");
+            check(port, "/ctxt", "200 /ctx /ctxt null");
+            check(port, "/other/c;p=1", "200 / /other/c;p=1 null");
+            check(port, "/ctx/a%20b?q=%41", "200 /ctx /ctx/a b q=%41");
+            check(port, "/%63tx/sub", "200 /ctx/sub /ctx/sub null");
+            check(port, "http://localhost/ctx/d?e", "200 /ctx /ctx/d e");
+            check(port, "/ctx/%zz", "400");
+            check(port, "/ctx/[x]", "400");
+            check(port, "/ctx/a%", "400");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static void check(int port, String target, String expected) throws IOException {
+        Socket s = new Socket("localhost", port);
+        s.setSoTimeout(10000);
+        OutputStream os = s.getOutputStream();
+        os.write(("GET " + target + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes("ISO8859_1"));
+        os.flush();
+        InputStream is = s.getInputStream();
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = is.read()) != -1) {
+            sb.append((char) c);
+        }
+        s.close();
+        String response = sb.toString();
+        String result = response.substring(9, 12);
+        if (result.equals("200")) {
+            result += " " + response.substring(response.indexOf("\r\n\r\n") + 4);
+        }
+        if (!result.equals(expected)) {
+            throw new RuntimeException(target + ": expected \"" + expected + "\" got \"" + result + "\"");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary response heads and error replies are encoded as before
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class ResponseHeadTest {
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                int code = Integer.parseInt(t.getRequestURI().getPath().substring(1));
+                t.getResponseHeaders().add("X-Multi", "1");
+                t.getResponseHeaders().add("x-multi", "2");
+                byte[] body = "body".getBytes("ISO8859_1");
+                t.sendResponseHeaders(code, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+        int port = server.getAddress().getPort();
+        try {
+            String r = get(port, "/200");
+            check(r, "HTTP/1.1 200 OK\r\n");
+            check(r, "\r\nX-multi: 1\r\nX-multi: 2\r\n");
+            check(r, "\r\nContent-length: 4\r\n");
+            check(r, "\r\n\r\nbody");
+            int i = r.indexOf("\r\nDate: ") + 8;
+            String date = r.substring(i, r.indexOf('\r', i));
+            SimpleDateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            long skew = Math.abs(df.parse(date).getTime() - System.currentTimeMillis());
+            if (skew > 5000) {
+                throw new RuntimeException("bad Date: " + date);
+            }
+            check(get(port, "/404"), "HTTP/1.1 404 Not Found\r\n");
+            /* a code without a reason phrase */
+            check(get(port, "/299"), "HTTP/1.1 299\r\n");
+            check(get(port, "/1000"), "HTTP/1.1 1000\r\n");
+
+            /* error replies written by the server */
+            r = get(port, "/[x]");
+            check(r, "HTTP/1.1 400 Bad Request\r\n");
+            check(r, "\r\nContent-Type: text/html\r\n");
+            check(r, "\r\nDate: ");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static String get(int port, String path) throws IOException {
+        Socket s = new Socket("localhost", port);
+        s.setSoTimeout(10000);
+        OutputStream os = s.getOutputStream();
+        os.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes("ISO8859_1"));
+        os.flush();
+        InputStream is = s.getInputStream();
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = is.read()) != -1) {
+            sb.append((char) c);
+        }
+        s.close();
+        return sb.toString();
+    }
+
+    static void check(String response, String expected) {
+        if (!response.contains(expected)) {
+            throw new RuntimeException("expected \"" + expected + "\" in \"" + response + "\"");
+        }
+    }
+}
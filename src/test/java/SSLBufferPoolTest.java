@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary https connections keep their data intact while their SSL
+ *          buffers go back to the pool between requests, and closed or
+ *          timed out connections give their buffers back too
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpsConfigurator;
+import org.jboss.com.sun.net.httpserver.HttpsServer;
+
+public class SSLBufferPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        final SSLContext ssl = new SimpleSSLContext(System.getProperty("test.src")).get();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("sun.net.httpserver.maxReqHeadTime", "5");
+        config.put("sun.net.httpserver.clockTick", "100");
+        HttpsServer server = HttpsServer.create(new InetSocketAddress("localhost", 0), 50, config);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                /* echoes the body, or else the X-Fill header repeated */
+                byte[] body = BufferPoolTest.read(t.getRequestBody());
+                if (body.length == 0) {
+                    String fill = t.getRequestHeaders().getFirst("X-Fill");
+                    int n = Integer.parseInt(t.getRequestHeaders().getFirst("X-Count"));
+                    ByteArrayOutputStream bo = new ByteArrayOutputStream();
+                    for (int i = 0; i < n; i++) {
+                        bo.write(fill.getBytes("ISO8859_1"));
+                    }
+                    body = bo.toByteArray();
+                }
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.setHttpsConfigurator(new HttpsConfigurator(ssl));
+        server.start();
+        final int port = server.getAddress().getPort();
+        ExecutorService ex = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> fs = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                final int k = i;
+                fs.add(ex.submit(new java.util.concurrent.Callable<Void>() {
+                    public Void call() throws Exception {
+                        client(ssl, port, k);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : fs) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            closing(ssl, port);
+            System.out.println("OK");
+        } finally {
+            ex.shutdown();
+            server.stop(0);
+        }
+    }
+
+    /* the buffers of closed connections, and of handshakes which time out, are reused */
+    static void closing(SSLContext ssl, int port) throws Exception {
+        long before = BufferPoolTest.directBuffers();
+        for (int i = 0; i < 100; i++) {
+            Socket s = ssl.getSocketFactory().createSocket("localhost", port);
+            s.setSoTimeout(10000);
+            OutputStream os = s.getOutputStream();
+            os.write("GET /x HTTP/1.1\r\nHost: x\r\nX-Count: 5\r\nX-Fill: c\r\nConnection: close\r\n\r\n"
+                    .getBytes("ISO8859_1"));
+            os.flush();
+            BufferPoolTest.response(s.getInputStream());
+            s.close();
+        }
+        Socket[] stalled = new Socket[20];
+        for (int i = 0; i < stalled.length; i++) {
+            /* a client hello cut short, the handshake never completes */
+            stalled[i] = new Socket("localhost", port);
+            stalled[i].setSoTimeout(10000);
+            stalled[i].getOutputStream().write(new byte[] {0x16, 0x03, 0x01, 0x01, 0x00, 0x01});
+        }
+        for (Socket s : stalled) {
+            try {
+                while (s.getInputStream().read() != -1) ;
+            } catch (IOException e) {
+            }
+            s.close();
+        }
+        /* the timer closes the connection before the dispatcher gives its buffers back */
+        Thread.sleep(500);
+        long allocated = BufferPoolTest.directBuffers() - before;
+        System.out.println(allocated + " direct buffers allocated for 120 closed connections");
+        if (allocated > 6) {
+            throw new RuntimeException("buffers of closed connections not reused: " + allocated + " allocations");
+        }
+    }
+
+    static void client(SSLContext ssl, int port, int k) throws Exception {
+        Socket s = ssl.getSocketFactory().createSocket("localhost", port);
+        s.setSoTimeout(10000);
+        OutputStream os = s.getOutputStream();
+        InputStream is = s.getInputStream();
+        for (int i = 0; i < 10; i++) {
+            /* small and large responses */
+            String fill = "k" + k + "i" + i + "-";
+            int count = i % 2 == 0 ? 5 : 20000;
+            String get = "GET /x HTTP/1.1\r\nHost: x\r\nX-Count: " + count + "\r\nX-Fill: " + fill + "\r\n\r\n";
+            /* every third time, two requests in one record */
+            int n = i % 3 == 0 ? 2 : 1;
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < n; j++) {
+                sb.append(get);
+            }
+            os.write(sb.toString().getBytes("ISO8859_1"));
+            os.flush();
+            byte[] expected = new byte[fill.length() * count];
+            for (int j = 0; j < count; j++) {
+                System.arraycopy(fill.getBytes("ISO8859_1"), 0, expected, j * fill.length(), fill.length());
+            }
+            for (int j = 0; j < n; j++) {
+                if (!Arrays.equals(BufferPoolTest.response(is), expected)) {
+                    throw new RuntimeException("client " + k + " request " + i + ": wrong body");
+                }
+            }
+            /* let the connection go idle */
+            Thread.sleep(5);
+            byte[] post = new byte[30000 + i];
+            Arrays.fill(post, (byte) ('a' + k));
+            os.write(("POST /x HTTP/1.1\r\nHost: x\r\nContent-Length: " + post.length + "\r\n\r\n").getBytes("ISO8859_1"));
+            os.write(post);
+            os.flush();
+            if (!Arrays.equals(BufferPoolTest.response(is), post)) {
+                throw new RuntimeException("client " + k + " post " + i + ": wrong body");
+            }
+        }
+        s.close();
+    }
+}
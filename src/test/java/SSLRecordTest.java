@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary small writes to a https response are coalesced into full TLS records
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpsConfigurator;
+import org.jboss.com.sun.net.httpserver.HttpsServer;
+
+public class SSLRecordTest {
+
+    static final int WRITES = 2000;
+    static final int CHUNK = 20;
+
+    /* TLS records sent by the server */
+    static final AtomicInteger records = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        SSLContext ssl = new SimpleSSLContext(System.getProperty("test.src")).get();
+        HttpsServer server = HttpsServer.create(new InetSocketAddress("localhost", 0), 50);
+        server.createContext("/test", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                is.close();
+                byte[] piece = new byte[CHUNK];
+                t.sendResponseHeaders(200, WRITES * CHUNK);
+                OutputStream os = t.getResponseBody();
+                for (int i = 0; i < WRITES; i++) {
+                    piece[0] = (byte) i;
+                    os.write(piece);
+                }
+                os.close();
+            }
+        });
+        server.setHttpsConfigurator(new HttpsConfigurator(ssl));
+        server.start();
+        final ServerSocket proxy = new ServerSocket(0);
+        final int port = server.getAddress().getPort();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    forward(proxy.accept(), port);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        try {
+            URL url = new URL("https://localhost:" + proxy.getLocalPort() + "/test/foo.html");
+            HttpsURLConnection urlc = (HttpsURLConnection) url.openConnection();
+            urlc.setSSLSocketFactory(ssl.getSocketFactory());
+            urlc.setHostnameVerifier(new DummyVerifier());
+            urlc.setReadTimeout(10000);
+            InputStream is = urlc.getInputStream();
+            byte[] b = new byte[CHUNK];
+            for (int i = 0; i < WRITES; i++) {
+                int off = 0;
+                while (off < CHUNK) {
+                    int n = is.read(b, off, CHUNK - off);
+                    if (n == -1) {
+                        throw new RuntimeException("response too short");
+                    }
+                    off += n;
+                }
+                if (b[0] != (byte) i) {
+                    throw new RuntimeException("wrong data at " + i);
+                }
+            }
+            if (is.read() != -1) {
+                throw new RuntimeException("response too long");
+            }
+            is.close();
+            int n = records.get();
+            System.out.println(n + " records for " + WRITES + " writes");
+            /* the handshake, the head and three records of body */
+            if (n > 20) {
+                throw new RuntimeException("small writes are not coalesced: " + n + " records");
+            }
+            System.out.println("OK");
+        } finally {
+            proxy.close();
+            server.stop(0);
+        }
+    }
+
+    /**
+     * relays the connection to the server, counting the records it sends
+     */
+    static void forward(final Socket client, int port) throws IOException {
+        final Socket s = new Socket("localhost", port);
+        Thread up = new Thread() {
+            public void run() {
+                try {
+                    copy(client.getInputStream(), s.getOutputStream(), false);
+                } catch (IOException e) {
+                }
+            }
+        };
+        up.setDaemon(true);
+        up.start();
+        copy(s.getInputStream(), client.getOutputStream(), true);
+        client.close();
+        s.close();
+    }
+
+    static void copy(InputStream in, OutputStream out, boolean count) throws IOException {
+        byte[] b = new byte[8192];
+        /* bytes left of the current record, negative while reading a record header */
+        int left = -5;
+        int length = 0;
+        int n;
+        while ((n = in.read(b)) != -1) {
+            out.write(b, 0, n);
+            out.flush();
+            if (!count) {
+                continue;
+            }
+            for (int i = 0; i < n; ) {
+                if (left < 0) {
+                    /* bytes 3 and 4 of the header hold the length */
+                    if (left == -2) {
+                        length = (b[i] & 0xff) << 8;
+                    } else if (left == -1) {
+                        length |= b[i] & 0xff;
+                    }
+                    i++;
+                    if (++left == 0) {
+                        records.incrementAndGet();
+                        left = length;
+                        if (left == 0) {
+                            left = -5;
+                        }
+                    }
+                } else {
+                    int k = Math.min(left, n - i);
+                    i += k;
+                    left -= k;
+                    if (left == 0) {
+                        left = -5;
+                    }
+                }
+            }
+        }
+    }
+}
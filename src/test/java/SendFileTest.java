@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary files and file regions sent with HttpExchange.sendFile
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jboss.com.sun.net.httpserver.Filter;
+import org.jboss.com.sun.net.httpserver.HttpContext;
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class SendFileTest {
+
+    static final int SIZE = 3 * 1024 * 1024 + 17;
+    static long filtered;
+
+    public static void main(String[] args) throws Exception {
+        final File file = File.createTempFile("sendfile", ".bin");
+        file.deleteOnExit();
+        final byte[] data = new byte[SIZE];
+        new Random(1).nextBytes(data);
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(data);
+        fos.close();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        HttpHandler whole = new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                t.getRequestBody().close();
+                t.sendFile(200, file.toPath());
+            }
+        };
+        server.createContext("/file", whole);
+        server.createContext("/region", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                t.getRequestBody().close();
+                FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                try {
+                    t.sendFile(200, fc, 1000, 5000);
+                } finally {
+                    fc.close();
+                }
+            }
+        });
+        HttpContext ctx = server.createContext("/filtered", whole);
+        ctx.getFilters().add(new Filter() {
+            public void doFilter(HttpExchange t, Chain chain) throws IOException {
+                t.setStreams(null, new FilterOutputStream(t.getResponseBody()) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        filtered += len;
+                        out.write(b, off, len);
+                    }
+                });
+                chain.doFilter(t);
+            }
+
+            public String description() {
+                return "counts the response bytes";
+            }
+        });
+        server.start();
+        String base = "http://localhost:" + server.getAddress().getPort();
+        try {
+            for (int i = 0; i < 3; i++) {
+                check(get(base + "/file", "GET"), data);
+            }
+            check(get(base + "/region", "GET"), Arrays.copyOfRange(data, 1000, 6000));
+            check(get(base + "/filtered", "GET"), data);
+            if (filtered != SIZE) {
+                throw new RuntimeException("filter saw " + filtered + " bytes");
+            }
+            HttpURLConnection c = (HttpURLConnection) new URL(base + "/file").openConnection();
+            c.setRequestMethod("HEAD");
+            if (c.getResponseCode() != 200 || c.getContentLengthLong() != SIZE) {
+                throw new RuntimeException("HEAD: " + c.getResponseCode() + " " + c.getContentLengthLong());
+            }
+            c.disconnect();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static byte[] get(String url, String method) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setRequestMethod(method);
+        c.setReadTimeout(10000);
+        if (c.getResponseCode() != 200) {
+            throw new RuntimeException(url + ": " + c.getResponseCode());
+        }
+        InputStream is = c.getInputStream();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        is.close();
+        return bos.toByteArray();
+    }
+
+    static void check(byte[] got, byte[] expected) {
+        if (!Arrays.equals(got, expected)) {
+            throw new RuntimeException("got " + got.length + " bytes, expected " + expected.length);
+        }
+    }
+}
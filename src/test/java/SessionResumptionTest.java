@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary session cache settings of HttpsConfigurator, and the counts of
+ *          full and resumed handshakes
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+import org.jboss.com.sun.net.httpserver.HandshakeStatistics;
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpsConfigurator;
+import org.jboss.com.sun.net.httpserver.HttpsServer;
+
+public class SessionResumptionTest {
+
+    static final int CONNECTIONS = 4;
+
+    public static void main(String[] args) throws Exception {
+        SSLContext ssl = new SimpleSSLContext(System.getProperty("test.src")).get();
+        HttpsServer server = HttpsServer.create(new InetSocketAddress("localhost", 0), 50);
+        server.createContext("/test", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                is.close();
+                byte[] body = "hello".getBytes("ISO8859_1");
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        HttpsConfigurator config = new HttpsConfigurator(ssl);
+        if (config.getSessionCacheSize() != -1 || config.getSessionTimeout() != -1) {
+            throw new RuntimeException("session settings should not be set");
+        }
+        config.setSessionCacheSize(123);
+        config.setSessionTimeout(456);
+        try {
+            config.setSessionTimeout(-1);
+            throw new RuntimeException("negative timeout accepted");
+        } catch (IllegalArgumentException e) {
+        }
+        server.setHttpsConfigurator(config);
+        server.start();
+        int port = server.getAddress().getPort();
+        try {
+            SSLSessionContext sessions = ssl.getServerSessionContext();
+            if (sessions.getSessionCacheSize() != 123 || sessions.getSessionTimeout() != 456) {
+                throw new RuntimeException("session settings not applied: "
+                        + sessions.getSessionCacheSize() + " " + sessions.getSessionTimeout());
+            }
+            String[] protocols = {"TLSv1.3", "TLSv1.2"};
+            for (String protocol : protocols) {
+                for (int i = 0; i < CONNECTIONS; i++) {
+                    get(ssl, port, protocol);
+                }
+            }
+            HandshakeStatistics stats = server.getHandshakeStatistics();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (stats.getCompletedHandshakes() < protocols.length * CONNECTIONS
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            System.out.println("full " + stats.getFullHandshakes() + ", resumed " + stats.getResumedHandshakes());
+            /* the client resumes the session of the first connection of each protocol */
+            if (stats.getFullHandshakes() != protocols.length
+                    || stats.getResumedHandshakes() != protocols.length * (CONNECTIONS - 1)) {
+                throw new RuntimeException("unexpected handshake counts");
+            }
+            System.out.println("OK");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static void get(SSLContext ssl, int port, String protocol) throws IOException {
+        SSLSocket s = (SSLSocket) ssl.getSocketFactory().createSocket("localhost", port);
+        try {
+            s.setEnabledProtocols(new String[] {protocol});
+            s.setSoTimeout(10000);
+            OutputStream os = s.getOutputStream();
+            os.write("GET /test/x HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n".getBytes("ISO8859_1"));
+            os.flush();
+            InputStream is = s.getInputStream();
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = is.read()) != -1) {
+                sb.append((char) c);
+            }
+            if (!sb.toString().startsWith("HTTP/1.1 200") || !sb.toString().endsWith("hello")) {
+                throw new RuntimeException("unexpected response: " + sb);
+            }
+        } finally {
+            s.close();
+        }
+    }
+}
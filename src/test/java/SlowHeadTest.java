@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary clients sending their request heads slowly must not hold on to worker threads
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class SlowHeadTest {
+
+    static final int SLOW = 20;
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 50);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                byte[] body = "hello".getBytes("ISO8859_1");
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        server.setExecutor(executor);
+        server.start();
+        int port = server.getAddress().getPort();
+        Socket[] slow = new Socket[SLOW];
+        try {
+            /* more incomplete heads than there are workers */
+            for (int i = 0; i < SLOW; i++) {
+                slow[i] = new Socket("localhost", port);
+                slow[i].setSoTimeout(10000);
+                write(slow[i], "GET / HTTP/1.1\r\nHost: loc");
+            }
+            Thread.sleep(200);
+            for (int i = 0; i < SLOW; i++) {
+                write(slow[i], "alhost\r\nX-Slow: " + i + "\r\n");
+            }
+
+            /* complete requests are still served meanwhile */
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 5; i++) {
+                Socket s = new Socket("localhost", port);
+                s.setSoTimeout(5000);
+                write(s, "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                check(readResponse(s.getInputStream()));
+                s.close();
+            }
+            System.out.println("complete requests took " + (System.currentTimeMillis() - start) + " ms");
+
+            /* and the slow ones once they are done */
+            for (int i = 0; i < SLOW; i++) {
+                write(slow[i], "\r\n");
+            }
+            for (int i = 0; i < SLOW; i++) {
+                check(readResponse(slow[i].getInputStream()));
+            }
+
+            /* a line which is no request line is rejected without waiting for more */
+            Socket s = new Socket("localhost", port);
+            s.setSoTimeout(5000);
+            write(s, "HELLO WORLD\r\n");
+            String r = readResponse(s.getInputStream());
+            s.close();
+            if (!r.startsWith("HTTP/1.1 400")) {
+                throw new RuntimeException("unexpected response: " + r);
+            }
+
+            /* a request line is accepted whether the rest of the head comes with it or not */
+            for (int i = 0; i < 2; i++) {
+                s = new Socket("localhost", port);
+                s.setSoTimeout(5000);
+                write(s, "GET / http/1.1\r\n");
+                if (i == 1) {
+                    Thread.sleep(200);
+                }
+                write(s, "Host: localhost\r\nConnection: close\r\n\r\n");
+                check(readResponse(s.getInputStream()));
+                /* the connection is closed as asked, the headers were not taken for another request */
+                if (s.getInputStream().read() != -1) {
+                    throw new RuntimeException("head split at the request line");
+                }
+                s.close();
+            }
+        } finally {
+            for (Socket s : slow) {
+                if (s != null) {
+                    s.close();
+                }
+            }
+            server.stop(0);
+            executor.shutdown();
+        }
+        headDeadline();
+    }
+
+    /* a head which is never completed is dropped after maxReqHeadTime */
+    static void headDeadline() throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("sun.net.httpserver.maxReqHeadTime", "1");
+        config.put("sun.net.httpserver.clockTick", "100");
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 50, config);
+        server.start();
+        Socket s = new Socket("localhost", server.getAddress().getPort());
+        try {
+            s.setSoTimeout(10000);
+            long start = System.currentTimeMillis();
+            write(s, "GET / HTTP/1.1\r\nHost: loc");
+            int c;
+            try {
+                c = s.getInputStream().read();
+            } catch (IOException e) {
+                c = -1;
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            if (c != -1 || elapsed > 5000) {
+                throw new RuntimeException("incomplete head not dropped: " + c + " after " + elapsed + " ms");
+            }
+            System.out.println("incomplete head dropped after " + elapsed + " ms");
+        } finally {
+            s.close();
+            server.stop(0);
+        }
+    }
+
+    static void write(Socket s, String str) throws IOException {
+        OutputStream os = s.getOutputStream();
+        os.write(str.getBytes("ISO8859_1"));
+        os.flush();
+    }
+
+    /* reads the status line and the headers, then the 5 byte body */
+    static String readResponse(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int crlf = 0;
+        while (crlf < 4) {
+            int c = is.read();
+            if (c == -1) {
+                throw new RuntimeException("connection closed: " + sb);
+            }
+            sb.append((char) c);
+            crlf = (c == '\r' || c == '\n') ? crlf + 1 : 0;
+        }
+        for (int i = 0; i < 5; i++) {
+            sb.append((char) is.read());
+        }
+        return sb.toString();
+    }
+
+    static void check(String response) {
+        if (!response.startsWith("HTTP/1.1 200") || !response.endsWith("hello")) {
+            throw new RuntimeException("unexpected response: " + response);
+        }
+    }
+}
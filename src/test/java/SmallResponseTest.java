@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary the head and a small body of a response go out together, so that
+ *          keep-alive requests are not held up by delayed acknowledgements
+ */
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class SmallResponseTest {
+
+    static final int REQUESTS = 100;
+    static final byte[] BODY = new byte[200];
+
+    public static void main(String[] args) throws Exception {
+        Arrays.fill(BODY, (byte) 'x');
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                boolean chunked = t.getRequestURI().getPath().equals("/chunked");
+                t.sendResponseHeaders(200, chunked ? 0 : BODY.length);
+                OutputStream os = t.getResponseBody();
+                os.write(BODY);
+                os.close();
+            }
+        });
+        server.start();
+        try {
+            run(server.getAddress().getPort(), "/fixed");
+            run(server.getAddress().getPort(), "/chunked");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static void run(int port, String path) throws IOException {
+        Socket s = new Socket("localhost", port);
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(10000);
+        OutputStream os = s.getOutputStream();
+        InputStream is = new BufferedInputStream(s.getInputStream());
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("ISO8859_1");
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < REQUESTS; i++) {
+            os.write(request);
+            os.flush();
+            String head = readLine(is);
+            if (!head.startsWith("HTTP/1.1 200")) {
+                throw new RuntimeException("unexpected response: " + head);
+            }
+            boolean chunked = false;
+            String line;
+            while ((line = readLine(is)).length() > 0) {
+                chunked |= line.equalsIgnoreCase("Transfer-encoding: chunked");
+            }
+            if (chunked) {
+                while (!readLine(is).equals("0")) ;
+                readLine(is);
+            } else {
+                for (int j = 0; j < BODY.length; j++) {
+                    is.read();
+                }
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        s.close();
+        System.out.println(path + ": " + REQUESTS + " requests in " + elapsed + " ms");
+        /* about 40 ms each when the body waits for the head to be acknowledged */
+        if (elapsed > REQUESTS * 20) {
+            throw new RuntimeException(path + ": responses too slow: " + elapsed + " ms");
+        }
+    }
+
+    static String readLine(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = is.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("connection closed");
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary StaticFileHandler: conditional requests, ranges and cache invalidation
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.jboss.com.sun.net.httpserver.HttpServer;
+import org.jboss.com.sun.net.httpserver.StaticFileHandler;
+
+public class StaticFileTest {
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("static");
+        Path file = root.resolve("data.txt");
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        Files.write(file, data);
+        Files.createDirectory(root.resolve("dir"));
+        Files.write(root.resolve("dir").resolve("index.html"), "index".getBytes("ISO8859_1"));
+        Files.write(root.getParent().resolve("outside.txt"), "secret".getBytes("ISO8859_1"));
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5);
+        server.createContext("/static", new StaticFileHandler(root, 0));
+        server.start();
+        String base = "http://localhost:" + server.getAddress().getPort() + "/static/";
+        try {
+            HttpURLConnection c = open(base + "data.txt");
+            check(c.getResponseCode() == 200, "200");
+            check(Arrays.equals(read(c), data), "body");
+            check("text/plain".equals(c.getHeaderField("Content-Type")), "type");
+            check("bytes".equals(c.getHeaderField("Accept-Ranges")), "accept-ranges");
+            String etag = c.getHeaderField("ETag");
+            String lastModified = c.getHeaderField("Last-Modified");
+            check(etag != null && lastModified != null, "validators");
+
+            c = open(base + "data.txt");
+            c.setRequestProperty("If-None-Match", "\"x\", " + etag);
+            check(c.getResponseCode() == 304, "304 etag");
+            check(etag.equals(c.getHeaderField("ETag")), "304 etag header");
+
+            c = open(base + "data.txt");
+            c.setRequestProperty("If-Modified-Since", lastModified);
+            check(c.getResponseCode() == 304, "304 date");
+
+            c = open(base + "data.txt");
+            c.setRequestProperty("Range", "bytes=10-19");
+            check(c.getResponseCode() == 206, "206");
+            check(("bytes 10-19/" + data.length).equals(c.getHeaderField("Content-Range")), "content-range");
+            check(Arrays.equals(read(c), Arrays.copyOfRange(data, 10, 20)), "range body");
+
+            c = open(base + "data.txt");
+            c.setRequestProperty("Range", "bytes=-5");
+            check(c.getResponseCode() == 206, "suffix");
+            check(Arrays.equals(read(c), Arrays.copyOfRange(data, data.length - 5, data.length)), "suffix body");
+
+            c = open(base + "data.txt");
+            c.setRequestProperty("Range", "bytes=10-19");
+            c.setRequestProperty("If-Range", "\"other\"");
+            check(c.getResponseCode() == 200, "if-range");
+            read(c);
+
+            c = open(base + "data.txt");
+            c.setRequestProperty("Range", "bytes=" + data.length + "-");
+            check(c.getResponseCode() == 416, "416");
+            check(("bytes */" + data.length).equals(c.getHeaderField("Content-Range")), "416 range");
+
+            c = open(base + "data.txt");
+            c.setRequestMethod("HEAD");
+            check(c.getResponseCode() == 200, "head");
+            check(c.getContentLengthLong() == data.length, "head length");
+
+            c = open(base + "data.txt");
+            c.setRequestMethod("POST");
+            check(c.getResponseCode() == 405, "405");
+            check("GET, HEAD".equals(c.getHeaderField("Allow")), "allow");
+
+            check(open(base + "missing.txt").getResponseCode() == 404, "404");
+            check(open(base + "..%2Foutside.txt").getResponseCode() == 404, "traversal");
+            check(open(base + "%00").getResponseCode() == 404, "nul");
+            check(open(base + "dir%00/").getResponseCode() == 404, "nul dir");
+
+            c = open(base + "dir");
+            c.setInstanceFollowRedirects(false);
+            check(c.getResponseCode() == 301, "301");
+            c = open(base + "dir/");
+            check(c.getResponseCode() == 200, "index");
+            check(new String(read(c), "ISO8859_1").equals("index"), "index body");
+
+            /* a modified file gets a new entity tag */
+            Files.write(file, "changed".getBytes("ISO8859_1"));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+            c = open(base + "data.txt");
+            c.setRequestProperty("If-None-Match", etag);
+            check(c.getResponseCode() == 200, "modified");
+            check(new String(read(c), "ISO8859_1").equals("changed"), "modified body");
+            check(!etag.equals(c.getHeaderField("ETag")), "new etag");
+            System.out.println("OK");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setReadTimeout(10000);
+        return c;
+    }
+
+    static byte[] read(HttpURLConnection c) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        InputStream is = c.getInputStream();
+        byte[] b = new byte[8192];
+        int n;
+        while ((n = is.read(b)) != -1) {
+            bo.write(b, 0, n);
+        }
+        is.close();
+        return bo.toByteArray();
+    }
+
+    static void check(boolean b, String msg) {
+        if (!b) {
+            throw new RuntimeException("failed: " + msg);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary the head of a chunked or streamed response is sent before
+ *          the handler writes any of the body
+ */
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+import org.jboss.com.sun.net.httpserver.HttpsConfigurator;
+import org.jboss.com.sun.net.httpserver.HttpsServer;
+
+public class StreamingHeadTest {
+
+    /* counted down by the client once it has read the head */
+    static volatile CountDownLatch headRead;
+
+    public static void main(String[] args) throws Exception {
+        HttpHandler handler = new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                is.close();
+                t.sendResponseHeaders(200, 0);
+                OutputStream os = t.getResponseBody();
+                try {
+                    headRead.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                os.write("data".getBytes("ISO8859_1"));
+                os.close();
+            }
+        };
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 5);
+        server.createContext("/", handler);
+        server.start();
+        try {
+            int port = server.getAddress().getPort();
+            run(new Socket("localhost", port), "HTTP/1.1", "Transfer-encoding: chunked");
+            run(new Socket("localhost", port), "HTTP/1.0", null);
+        } finally {
+            server.stop(0);
+        }
+
+        SSLContext ssl = new SimpleSSLContext(System.getProperty("test.src")).get();
+        HttpsServer https = HttpsServer.create(new InetSocketAddress("localhost", 0), 5);
+        https.createContext("/", handler);
+        https.setHttpsConfigurator(new HttpsConfigurator(ssl));
+        https.start();
+        try {
+            int port = https.getAddress().getPort();
+            run(ssl.getSocketFactory().createSocket("localhost", port), "HTTP/1.1", "Transfer-encoding: chunked");
+        } finally {
+            https.stop(0);
+        }
+        System.out.println("OK");
+    }
+
+    static void run(Socket s, String version, String header) throws IOException {
+        headRead = new CountDownLatch(1);
+        try {
+            s.setSoTimeout(5000);
+            OutputStream os = s.getOutputStream();
+            InputStream is = new BufferedInputStream(s.getInputStream());
+            os.write(("GET /stream " + version + "\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes("ISO8859_1"));
+            os.flush();
+            boolean found = header == null;
+            try {
+                String line = readLine(is);
+                if (!line.startsWith("HTTP/1.1 200")) {
+                    throw new RuntimeException("unexpected response: " + line);
+                }
+                while ((line = readLine(is)).length() > 0) {
+                    found |= line.equalsIgnoreCase(header);
+                }
+            } catch (SocketTimeoutException e) {
+                throw new RuntimeException(version + ": head not sent before the body", e);
+            }
+            if (!found) {
+                throw new RuntimeException(version + ": no " + header);
+            }
+            headRead.countDown();
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = is.read()) != -1) {
+                sb.append((char) c);
+            }
+            if (sb.indexOf("data") == -1) {
+                throw new RuntimeException(version + ": body missing: " + sb);
+            }
+        } finally {
+            headRead.countDown();
+            s.close();
+        }
+    }
+
+    static String readLine(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = is.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("connection closed");
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * @test
+ * @summary idle connections and incomplete requests are closed by the timer wheel
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.com.sun.net.httpserver.HttpExchange;
+import org.jboss.com.sun.net.httpserver.HttpHandler;
+import org.jboss.com.sun.net.httpserver.HttpServer;
+
+public class TimeoutTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("sun.net.httpserver.idleInterval", "2");
+        config.put("sun.net.httpserver.clockTick", "500");
+        config.put("sun.net.httpserver.maxReqTime", "1");
+        config.put("sun.net.httpserver.timerMillis", "250");
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 5, config);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                InputStream is = t.getRequestBody();
+                while (is.read() != -1) ;
+                byte[] body = "hello".getBytes("ISO8859_1");
+                t.sendResponseHeaders(200, body.length);
+                OutputStream os = t.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+        int port = server.getAddress().getPort();
+        try {
+            /* a keep-alive connection is closed after idleInterval */
+            Socket s = new Socket("localhost", port);
+            s.setSoTimeout(10000);
+            s.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("ISO8859_1"));
+            InputStream is = s.getInputStream();
+            is.read();
+            long elapsed = timeToClose(is);
+            System.out.println("idle connection closed after " + elapsed + " ms");
+            check(elapsed, 1500, 4000);
+            s.close();
+
+            /* an incomplete request is closed after maxReqTime */
+            s = new Socket("localhost", port);
+            s.setSoTimeout(10000);
+            s.getOutputStream().write("GET / HTTP/1.1\r\n".getBytes("ISO8859_1"));
+            elapsed = timeToClose(s.getInputStream());
+            System.out.println("incomplete request closed after " + elapsed + " ms");
+            check(elapsed, 750, 3000);
+            s.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static long timeToClose(InputStream is) throws IOException {
+        long start = System.currentTimeMillis();
+        byte[] buf = new byte[1024];
+        while (is.read(buf) != -1) ;
+        return System.currentTimeMillis() - start;
+    }
+
+    static void check(long elapsed, long min, long max) {
+        if (elapsed < min || elapsed > max) {
+            throw new RuntimeException("closed after " + elapsed + " ms, expected " + min + " to " + max);
+        }
+    }
+}